@@ -0,0 +1,149 @@
+package com.yangdai.gifencoderlib;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 异步编码: init, start, addFrame 与 finish 按提交顺序依次在 executor 上执行, 调用方立即得到 CompletableFuture
+ * 不占用专门的线程, 多个编码任务可以共用同一个线程池. 已提交但尚未编码完成的帧数有上限,
+ * 到达上限时 submitFrame 阻塞, trySubmitFrame 直接拒绝. 任一步骤失败后, 之后的帧与 finish 都以同一个原因失败
+ *
+ * @author 30415
+ */
+public class AsyncGifEncoder {
+
+    private static final int DEFAULT_MAX_IN_FLIGHT_FRAMES = 4;
+
+    private final PixelGifEncoder encoder;
+    private final Executor executor;
+    private final int maxInFlightFrames;
+    private final Semaphore inFlight;
+    /**
+     * 最后提交的步骤, 新的步骤在它完成后才执行, 保证帧的顺序
+     */
+    private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+
+    public AsyncGifEncoder(PixelGifEncoder encoder, Executor executor) {
+        this(encoder, executor, DEFAULT_MAX_IN_FLIGHT_FRAMES);
+    }
+
+    /**
+     * encoder 的参数需事先设置好, 之后只能通过本类使用. maxInFlightFrames 为同时持有的 PixelSource 的最大数量
+     */
+    public AsyncGifEncoder(PixelGifEncoder encoder, Executor executor, int maxInFlightFrames) {
+        this.encoder = encoder;
+        this.executor = executor;
+        this.maxInFlightFrames = Math.max(1, maxInFlightFrames);
+        this.inFlight = new Semaphore(this.maxInFlightFrames);
+    }
+
+    /**
+     * 用首帧初始化并写入文件头. firstFrame 在返回的 future 完成之前不能修改
+     */
+    public CompletableFuture<Void> start(PixelSource firstFrame, OutputStream os) {
+        return then(() -> {
+            encoder.init(firstFrame);
+            return encoder.start(os);
+        });
+    }
+
+    public CompletableFuture<Void> start(PixelSource firstFrame, String file) {
+        return then(() -> {
+            encoder.init(firstFrame);
+            return encoder.start(file);
+        });
+    }
+
+    /**
+     * 提交一帧, 未完成的帧数到达上限时阻塞等待. source 在返回的 future 完成之前不能修改
+     */
+    public CompletableFuture<Void> submitFrame(PixelSource source) {
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return failed(e);
+        }
+        return enqueue(source);
+    }
+
+    /**
+     * 与 submitFrame 相同, 但到达上限时不等待, 返回以 RejectedExecutionException 失败的 future
+     * 被拒绝的帧不影响之后的帧
+     */
+    public CompletableFuture<Void> trySubmitFrame(PixelSource source) {
+        if (!inFlight.tryAcquire()) {
+            return failed(new RejectedExecutionException("too many frames in flight"));
+        }
+        return enqueue(source);
+    }
+
+    /**
+     * 写出剩余的帧并关闭输出, 完成时得到编码统计. 之前的步骤失败时同样关闭输出, 并以最先失败的原因结束
+     */
+    public synchronized CompletableFuture<EncoderStats> finish() {
+        CompletableFuture<EncoderStats> result = new CompletableFuture<>();
+        tail = tail.handleAsync((ignored, previous) -> {
+            Throwable cause = previous != null ? unwrap(previous) : null;
+            try {
+                if (!encoder.finish() && cause == null) {
+                    cause = failureCause();
+                }
+            } catch (RuntimeException e) {
+                if (cause == null) {
+                    cause = e;
+                }
+            }
+            if (cause != null) {
+                result.completeExceptionally(cause);
+            } else {
+                result.complete(encoder.getStats());
+            }
+            return null;
+        }, executor);
+        return result;
+    }
+
+    /**
+     * 已提交但尚未完成的帧数
+     */
+    public int getFramesInFlight() {
+        return maxInFlightFrames - inFlight.availablePermits();
+    }
+
+    private synchronized CompletableFuture<Void> enqueue(PixelSource source) {
+        CompletableFuture<Void> step = then(() -> encoder.addFrame(source));
+        // 释放许可之后再通知调用方, 收到完成通知时一定可以再提交一帧
+        return step.whenComplete((ignored, t) -> inFlight.release());
+    }
+
+    private synchronized CompletableFuture<Void> then(BooleanSupplier step) {
+        tail = tail.thenRunAsync(() -> {
+            if (!step.getAsBoolean()) {
+                throw new CompletionException(failureCause());
+            }
+        }, executor);
+        return tail;
+    }
+
+    private Throwable failureCause() {
+        Throwable failure = encoder.getFailure();
+        return failure != null ? failure : new IOException("encoder rejected the frame");
+    }
+
+    private static Throwable unwrap(Throwable t) {
+        return t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable cause) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(cause);
+        return future;
+    }
+}
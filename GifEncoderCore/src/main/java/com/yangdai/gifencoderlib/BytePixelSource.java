@@ -0,0 +1,156 @@
+package com.yangdai.gifencoderlib;
+
+import java.nio.ByteBuffer;
+
+/**
+ * byte[] 或 ByteBuffer 中按 PixelLayout 排列的像素, 支持行间隔
+ * 紧凑排列的 BGR 数组可以被编码器直接读取
+ *
+ * @author 30415
+ */
+final class BytePixelSource implements PixelSource {
+
+    private final byte[] array;
+    private final ByteBuffer buffer;
+    private final int offset;
+    private final int stride;
+    private final int width;
+    private final int height;
+    private final PixelLayout layout;
+
+    BytePixelSource(byte[] array, ByteBuffer buffer, int offset, int stride, int width, int height,
+                    PixelLayout layout) {
+        if (stride < width * layout.bytesPerPixel) {
+            throw new IllegalArgumentException("stride < width * bytesPerPixel");
+        }
+        this.array = array;
+        this.buffer = buffer;
+        this.offset = offset;
+        this.stride = stride;
+        this.width = width;
+        this.height = height;
+        this.layout = layout;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public byte[] getBgrArray() {
+        if (array != null && layout == PixelLayout.BGR && offset == 0 && stride == width * 3
+                && array.length >= width * height * 3) {
+            return array;
+        }
+        return null;
+    }
+
+    @Override
+    public ByteBuffer getBgrBuffer() {
+        if (buffer != null && layout == PixelLayout.BGR && stride == width * 3
+                && buffer.limit() - offset >= width * height * 3) {
+            ByteBuffer view = buffer.duplicate();
+            view.position(offset);
+            return view.slice();
+        }
+        return null;
+    }
+
+    @Override
+    public void readBgr(byte[] bgr) {
+        readBgrRows(bgr, 0, height);
+    }
+
+    @Override
+    public void readBgr(ByteBuffer bgr) {
+        readBgrRows(bgr, 0, height);
+    }
+
+    @Override
+    public boolean readBgrRows(byte[] bgr, int startRow, int endRow) {
+        int rowBytes = width * 3;
+        if (layout == PixelLayout.BGR) {
+            // 排列相同, 按行整块复制
+            ByteBuffer src = array == null ? buffer.duplicate() : null;
+            for (int y = startRow; y < endRow; y++) {
+                if (src == null) {
+                    System.arraycopy(array, offset + y * stride, bgr, y * rowBytes, rowBytes);
+                } else {
+                    src.position(offset + y * stride);
+                    src.get(bgr, y * rowBytes, rowBytes);
+                }
+            }
+            return true;
+        }
+        int step = layout.bytesPerPixel;
+        int r = layout.red;
+        int g = layout.green;
+        int b = layout.blue;
+        int k = startRow * rowBytes;
+        for (int y = startRow; y < endRow; y++) {
+            int i = offset + y * stride;
+            int end = i + width * step;
+            if (array != null) {
+                for (; i < end; i += step) {
+                    bgr[k++] = array[i + b];
+                    bgr[k++] = array[i + g];
+                    bgr[k++] = array[i + r];
+                }
+            } else {
+                for (; i < end; i += step) {
+                    bgr[k++] = buffer.get(i + b);
+                    bgr[k++] = buffer.get(i + g);
+                    bgr[k++] = buffer.get(i + r);
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean readBgrRows(ByteBuffer bgr, int startRow, int endRow) {
+        int rowBytes = width * 3;
+        if (layout == PixelLayout.BGR) {
+            ByteBuffer dst = bgr.duplicate();
+            ByteBuffer src = array == null ? buffer.duplicate() : null;
+            for (int y = startRow; y < endRow; y++) {
+                dst.position(y * rowBytes);
+                if (src == null) {
+                    dst.put(array, offset + y * stride, rowBytes);
+                } else {
+                    src.limit(offset + y * stride + rowBytes);
+                    src.position(offset + y * stride);
+                    dst.put(src);
+                }
+            }
+            return true;
+        }
+        int step = layout.bytesPerPixel;
+        int r = layout.red;
+        int g = layout.green;
+        int b = layout.blue;
+        int k = startRow * rowBytes;
+        for (int y = startRow; y < endRow; y++) {
+            int i = offset + y * stride;
+            int end = i + width * step;
+            for (; i < end; i += step, k += 3) {
+                if (array != null) {
+                    bgr.put(k, array[i + b]);
+                    bgr.put(k + 1, array[i + g]);
+                    bgr.put(k + 2, array[i + r]);
+                } else {
+                    bgr.put(k, buffer.get(i + b));
+                    bgr.put(k + 1, buffer.get(i + g));
+                    bgr.put(k + 2, buffer.get(i + r));
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,78 @@
+package com.yangdai.gifencoderlib;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 写入 FileChannel, 小于缓冲区的数据先合并, 其余直接写入通道
+ *
+ * @author 30415
+ */
+final class ChannelSink extends GifSink {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private long position;
+
+    ChannelSink(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public long position() {
+        return position;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (!buffer.hasRemaining()) {
+            drain();
+        }
+        buffer.put((byte) b);
+        position++;
+    }
+
+    @Override
+    public void write(ByteBuffer src) throws IOException {
+        int n = src.remaining();
+        if (n > buffer.remaining()) {
+            drain();
+        }
+        if (n <= buffer.remaining()) {
+            buffer.put(src);
+        } else {
+            while (src.hasRemaining()) {
+                channel.write(src);
+            }
+        }
+        position += n;
+    }
+
+    /**
+     * 把缓冲区中的数据写入通道
+     */
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+        } finally {
+            channel.close();
+        }
+    }
+}
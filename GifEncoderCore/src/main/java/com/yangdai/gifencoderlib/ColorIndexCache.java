@@ -0,0 +1,69 @@
+package com.yangdai.gifencoderlib;
+
+import java.util.Arrays;
+
+/**
+ * 颜色到调色板索引的直接映射缓存, 以完整的 24 位 RGB 作为键
+ * 同一帧中重复出现的颜色只需要一次数组读取, 冲突时直接覆盖旧条目,
+ * 因此结果与 Quantizer.map 完全一致
+ *
+ * @author 30415
+ */
+class ColorIndexCache {
+
+    /**
+     * 有效位, 区分空槽与黑色 (0,0,0)
+     */
+    private static final int VALID = 1 << 24;
+    private static final int HASH_MULTIPLIER = 0x9E3779B1;
+
+    private final int shift;
+    private final int[] keys;
+    private final byte[] indices;
+    private int hits;
+    private int lookups;
+
+    /**
+     * @param bits 表大小为 2 的 bits 次方
+     */
+    ColorIndexCache(int bits) {
+        shift = 32 - bits;
+        keys = new int[1 << bits];
+        indices = new byte[1 << bits];
+    }
+
+    /**
+     * 调色板改变后必须清空
+     */
+    void clear() {
+        Arrays.fill(keys, 0);
+        resetStats();
+    }
+
+    void resetStats() {
+        hits = 0;
+        lookups = 0;
+    }
+
+    int map(Quantizer nq, int b, int g, int r) {
+        int key = VALID | (r << 16) | (g << 8) | b;
+        int slot = (key * HASH_MULTIPLIER) >>> shift;
+        lookups++;
+        if (keys[slot] == key) {
+            hits++;
+            return indices[slot] & 0xff;
+        }
+        int index = nq.map(b, g, r);
+        keys[slot] = key;
+        indices[slot] = (byte) index;
+        return index;
+    }
+
+    int getHits() {
+        return hits;
+    }
+
+    int getLookups() {
+        return lookups;
+    }
+}
@@ -1,9 +1,11 @@
 package com.yangdai.gifencoderlib;
 
+import java.nio.ByteBuffer;
+
 /**
  * @author 30415
  */
-public class ColorQuantizer {
+public class ColorQuantizer implements Quantizer {
     /**
      * 使用的颜色数量
      */
@@ -87,6 +89,10 @@ public class ColorQuantizer {
      * 输入图像本身
      */
     protected byte[] inputImage;
+    /**
+     * 堆外的输入图像, 与 inputImage 只有一个不为 null
+     */
+    protected ByteBuffer inputBuffer;
     /**
      * = H*W*3
      */
@@ -97,9 +103,15 @@ public class ColorQuantizer {
     protected int sampleFactor;
 
     /**
-     * BGRc
+     * BGRc, 按分量分开存放, 热点循环中不再经过二维数组间接访问
+     */
+    protected int[] networkB = new int[COLOR_COUNT];
+    protected int[] networkG = new int[COLOR_COUNT];
+    protected int[] networkR = new int[COLOR_COUNT];
+    /**
+     * 去偏后记录的原始位置, 即颜色表中的索引
      */
-    protected int[][] network;
+    protected int[] networkC = new int[COLOR_COUNT];
     /**
      * 用于网络查找 - 实际上是256个
      */
@@ -113,42 +125,84 @@ public class ColorQuantizer {
      * 预计算的 radPower
      */
     protected int[] radPower = new int[INIT_RADIUS];
+    /**
+     * findBiasedColor 中每个神经元到采样颜色的距离
+     */
+    protected int[] distances = new int[COLOR_COUNT];
+    /**
+     * getColorMap 的输出, 每次 reset 后复用
+     */
+    protected byte[] colorMap = new byte[3 * COLOR_COUNT];
+    protected int[] colorIndex = new int[COLOR_COUNT];
+
 
+    /**
+     * 使用前需先调用 reset
+     */
+    public ColorQuantizer() {
+    }
 
     /**
      * 初始化网络范围为(0,0,0)到(255,255,255)并设置参数
      */
     public ColorQuantizer(byte[] input, int length, int sample) {
+        reset(input, length, sample);
+    }
 
-        int i;
-        int[] p;
+    public ColorQuantizer(ByteBuffer input, int length, int sample) {
+        reset(input, length, sample);
+    }
 
+    /**
+     * 重新初始化网络以学习新的图像, 复用已分配的数组
+     */
+    @Override
+    public void reset(byte[] input, int length, int sample) {
         inputImage = input;
+        inputBuffer = null;
+        resetNetwork(length, sample);
+    }
+
+    /**
+     * 从 ByteBuffer (可以是堆外的 direct buffer) 按绝对位置读取 BGR 像素, 不复制到堆上
+     */
+    @Override
+    public void reset(ByteBuffer input, int length, int sample) {
+        inputImage = null;
+        inputBuffer = input;
+        resetNetwork(length, sample);
+    }
+
+    private void resetNetwork(int length, int sample) {
         pixelCount = length;
         sampleFactor = sample;
 
-        network = new int[COLOR_COUNT][];
-        for (i = 0; i < COLOR_COUNT; i++) {
-            network[i] = new int[4];
-            p = network[i];
-            p[0] = p[1] = p[2] = (i << (NET_BIAS_SHIFT + 8)) / COLOR_COUNT;
+        for (int i = 0; i < COLOR_COUNT; i++) {
+            int v = (i << (NET_BIAS_SHIFT + 8)) / COLOR_COUNT;
+            networkB[i] = v;
+            networkG[i] = v;
+            networkR[i] = v;
+            networkC[i] = 0;
             frequency[i] = INT_BIAS / COLOR_COUNT;
             bias[i] = 0;
         }
     }
 
+    /**
+     * 返回的数组由本实例持有, 下一次 reset 后会被覆盖
+     */
     public byte[] getColorMap() {
-        byte[] map = new byte[3 * COLOR_COUNT];
-        int[] index = new int[COLOR_COUNT];
+        byte[] map = colorMap;
+        int[] index = colorIndex;
         for (int i = 0; i < COLOR_COUNT; i++) {
-            index[network[i][3]] = i;
+            index[networkC[i]] = i;
         }
         int k = 0;
         for (int i = 0; i < COLOR_COUNT; i++) {
             int j = index[i];
-            map[k++] = (byte) (network[j][0]);
-            map[k++] = (byte) (network[j][1]);
-            map[k++] = (byte) (network[j][2]);
+            map[k++] = (byte) (networkB[j]);
+            map[k++] = (byte) (networkG[j]);
+            map[k++] = (byte) (networkR[j]);
         }
         return map;
     }
@@ -159,41 +213,32 @@ public class ColorQuantizer {
     public void buildIndex() {
 
         int i, j, smallPos, smallVal;
-        int[] p;
-        int[] q;
         int previousCol, startPos;
+        int[] nb = networkB;
+        int[] ng = networkG;
+        int[] nr = networkR;
+        int[] nc = networkC;
 
         previousCol = 0;
         startPos = 0;
         for (i = 0; i < COLOR_COUNT; i++) {
-            p = network[i];
             smallPos = i;
-            smallVal = p[1];
+            smallVal = ng[i];
             /* g上的索引 */
             /* 在i..COLOR_COUNT-1中找到最小值 */
             for (j = i + 1; j < COLOR_COUNT; j++) {
-                q = network[j];
-                if (q[1] < smallVal) {
+                if (ng[j] < smallVal) {
                     smallPos = j;
-                    smallVal = q[1];
+                    smallVal = ng[j];
                     /* g上的索引 */
                 }
             }
-            q = network[smallPos];
-            /* 交换 p（i）和 q（smallPos）的条目 */
+            /* 交换 i 和 smallPos 的条目 */
             if (i != smallPos) {
-                j = q[0];
-                q[0] = p[0];
-                p[0] = j;
-                j = q[1];
-                q[1] = p[1];
-                p[1] = j;
-                j = q[2];
-                q[2] = p[2];
-                p[2] = j;
-                j = q[3];
-                q[3] = p[3];
-                p[3] = j;
+                swap(nb, i, smallPos);
+                swap(ng, i, smallPos);
+                swap(nr, i, smallPos);
+                swap(nc, i, smallPos);
             }
             /* smallVal条目现在在位置 i */
             if (smallVal != previousCol) {
@@ -211,14 +256,21 @@ public class ColorQuantizer {
         }
     }
 
+    private static void swap(int[] a, int i, int j) {
+        int t = a[i];
+        a[i] = a[j];
+        a[j] = t;
+    }
+
     /**
      * 主要学习循环
      */
     public void learn() {
 
         int i, j, b, g, r;
-        int radius, rad, alpha, step, delta, samplePixels;
+        int radius, rad, alpha, step, delta, samplePixels, countdown;
         byte[] p;
+        ByteBuffer buffer;
         int pix, lim;
 
         if (pixelCount < MIN_PICTURE_BYTES) {
@@ -226,18 +278,19 @@ public class ColorQuantizer {
         }
         alphaDec = 30 + ((sampleFactor - 1) / 3);
         p = inputImage;
+        buffer = inputBuffer;
         pix = 0;
         lim = pixelCount;
         samplePixels = pixelCount / (3 * sampleFactor);
         delta = samplePixels / NUM_CYCLES;
+        if (delta == 0) {
+            delta = 1;
+        }
         alpha = INITIAL_ALPHA;
         radius = INIT_RADIUS_VALUE;
 
         rad = radius >> RADIUS_BIAS_SHIFT;
-        for (i = 0; i < rad; i++) {
-            radPower[i] =
-                    alpha * (((rad * rad - i * i) * RAD_BIAS) / (rad * rad));
-        }
+        computeRadPower(rad, alpha);
 
         if (pixelCount < MIN_PICTURE_BYTES) {
             step = 3;
@@ -255,11 +308,18 @@ public class ColorQuantizer {
             }
         }
 
-        i = 0;
-        while (i < samplePixels) {
-            b = (p[pix] & 0xff) << NET_BIAS_SHIFT;
-            g = (p[pix + 1] & 0xff) << NET_BIAS_SHIFT;
-            r = (p[pix + 2] & 0xff) << NET_BIAS_SHIFT;
+        // 每 delta 个采样衰减一次 alpha 和半径, 用倒计数代替 i % delta
+        countdown = delta;
+        for (i = 0; i < samplePixels; i++) {
+            if (p != null) {
+                b = (p[pix] & 0xff) << NET_BIAS_SHIFT;
+                g = (p[pix + 1] & 0xff) << NET_BIAS_SHIFT;
+                r = (p[pix + 2] & 0xff) << NET_BIAS_SHIFT;
+            } else {
+                b = (buffer.get(pix) & 0xff) << NET_BIAS_SHIFT;
+                g = (buffer.get(pix + 1) & 0xff) << NET_BIAS_SHIFT;
+                r = (buffer.get(pix + 2) & 0xff) << NET_BIAS_SHIFT;
+            }
             j = findBiasedColor(b, g, r);
 
             moveSingleNeuron(alpha, j, b, g, r);
@@ -272,33 +332,38 @@ public class ColorQuantizer {
                 pix -= pixelCount;
             }
 
-            i++;
-            if (delta == 0) {
-                delta = 1;
-            }
-            if (i % delta == 0) {
+            if (--countdown == 0) {
+                countdown = delta;
                 alpha -= alpha / alphaDec;
                 radius -= radius / RADIUS_DEC;
                 rad = radius >> RADIUS_BIAS_SHIFT;
                 if (rad <= 1) {
                     rad = 0;
                 }
-                for (j = 0; j < rad; j++) {
-                    radPower[j] =
-                            alpha * (((rad * rad - j * j) * RAD_BIAS) / (rad * rad));
-                }
+                computeRadPower(rad, alpha);
             }
         }
     }
 
+    private void computeRadPower(int rad, int alpha) {
+        int rad2 = rad * rad;
+        for (int i = 0; i < rad; i++) {
+            radPower[i] = alpha * (((rad2 - i * i) * RAD_BIAS) / rad2);
+        }
+    }
+
     /**
      * 搜索 BGR 值为 0..255（去偏后）并返回颜色索引
      */
+    @Override
     public int map(int b, int g, int r) {
 
         int i, j, dist, a, bestD;
-        int[] p;
         int best;
+        int[] nb = networkB;
+        int[] ng = networkG;
+        int[] nr = networkR;
+        int[] nc = networkC;
 
         bestD = 1000;
         /* 最大距离为 256*3 */
@@ -310,68 +375,67 @@ public class ColorQuantizer {
 
         while ((i < COLOR_COUNT) || (j >= 0)) {
             if (i < COLOR_COUNT) {
-                p = network[i];
-                dist = p[1] - g;
+                dist = ng[i] - g;
                 if (dist >= bestD) {
                     i = COLOR_COUNT;
                     /* 停止迭代 */
                 } else {
-                    i++;
                     if (dist < 0) {
                         dist = -dist;
                     }
-                    a = p[0] - b;
+                    a = nb[i] - b;
                     if (a < 0) {
                         a = -a;
                     }
                     dist += a;
                     if (dist < bestD) {
-                        a = p[2] - r;
+                        a = nr[i] - r;
                         if (a < 0) {
                             a = -a;
                         }
                         dist += a;
                         if (dist < bestD) {
                             bestD = dist;
-                            best = p[3];
+                            best = nc[i];
                         }
                     }
+                    i++;
                 }
             }
             if (j >= 0) {
-                p = network[j];
-                dist = g - p[1];
+                dist = g - ng[j];
                 /* 在 g 上的索引 - 反向差异 */
                 if (dist >= bestD) {
                     j = -1;
                     /* 停止迭代 */
                 } else {
-                    j--;
                     if (dist < 0) {
                         dist = -dist;
                     }
-                    a = p[0] - b;
+                    a = nb[j] - b;
                     if (a < 0) {
                         a = -a;
                     }
                     dist += a;
                     if (dist < bestD) {
-                        a = p[2] - r;
+                        a = nr[j] - r;
                         if (a < 0) {
                             a = -a;
                         }
                         dist += a;
                         if (dist < bestD) {
                             bestD = dist;
-                            best = p[3];
+                            best = nc[j];
                         }
                     }
+                    j--;
                 }
             }
         }
         return (best);
     }
 
+    @Override
     public byte[] process() {
         learn();
         unBiasNet();
@@ -383,24 +447,25 @@ public class ColorQuantizer {
      * 去偏网络，将值调整为0..255，并记录位置i以准备排序
      */
     public void unBiasNet() {
-        @SuppressWarnings("unused")
-        int i, j;
-
-        for (i = 0; i < COLOR_COUNT; i++) {
-            network[i][0] >>= NET_BIAS_SHIFT;
-            network[i][1] >>= NET_BIAS_SHIFT;
-            network[i][2] >>= NET_BIAS_SHIFT;
-            network[i][3] = i;
+        for (int i = 0; i < COLOR_COUNT; i++) {
+            networkB[i] >>= NET_BIAS_SHIFT;
+            networkG[i] >>= NET_BIAS_SHIFT;
+            networkR[i] >>= NET_BIAS_SHIFT;
+            networkC[i] = i;
         }
     }
 
     /**
      * 通过预计算的 alpha*(1-((i-j)^2/[r]^2)) 在 radPower[|i-j|] 中移动相邻的神经元
+     * 上下两侧互不重叠, 分成两个连续的循环
      */
     protected void moveAdjacentNeurons(int rad, int i, int b, int g, int r) {
 
-        int j, k, lo, hi, a, m;
-        int[] p;
+        int j, m, a, lo, hi;
+        int[] nb = networkB;
+        int[] ng = networkG;
+        int[] nr = networkR;
+        int[] rp = radPower;
 
         lo = i - rad;
         if (lo < -1) {
@@ -411,29 +476,17 @@ public class ColorQuantizer {
             hi = COLOR_COUNT;
         }
 
-        j = i + 1;
-        k = i - 1;
-        m = 1;
-        while ((j < hi) || (k > lo)) {
-            a = radPower[m++];
-            if (j < hi) {
-                p = network[j++];
-                try {
-                    p[0] -= (a * (p[0] - b)) / ALPHA_RAD_BIAS;
-                    p[1] -= (a * (p[1] - g)) / ALPHA_RAD_BIAS;
-                    p[2] -= (a * (p[2] - r)) / ALPHA_RAD_BIAS;
-                } catch (Exception ignored) {
-                }
-            }
-            if (k > lo) {
-                p = network[k--];
-                try {
-                    p[0] -= (a * (p[0] - b)) / ALPHA_RAD_BIAS;
-                    p[1] -= (a * (p[1] - g)) / ALPHA_RAD_BIAS;
-                    p[2] -= (a * (p[2] - r)) / ALPHA_RAD_BIAS;
-                } catch (Exception ignored) {
-                }
-            }
+        for (j = i + 1, m = 1; j < hi; j++, m++) {
+            a = rp[m];
+            nb[j] -= (a * (nb[j] - b)) / ALPHA_RAD_BIAS;
+            ng[j] -= (a * (ng[j] - g)) / ALPHA_RAD_BIAS;
+            nr[j] -= (a * (nr[j] - r)) / ALPHA_RAD_BIAS;
+        }
+        for (j = i - 1, m = 1; j > lo; j--, m++) {
+            a = rp[m];
+            nb[j] -= (a * (nb[j] - b)) / ALPHA_RAD_BIAS;
+            ng[j] -= (a * (ng[j] - g)) / ALPHA_RAD_BIAS;
+            nr[j] -= (a * (nr[j] - r)) / ALPHA_RAD_BIAS;
         }
     }
 
@@ -441,12 +494,9 @@ public class ColorQuantizer {
      * 将神经元i朝着有偏差的(b,g,r)因子alpha移动
      */
     protected void moveSingleNeuron(int alpha, int i, int b, int g, int r) {
-
-        /* alter hit neuron */
-        int[] n = network[i];
-        n[0] -= (alpha * (n[0] - b)) / INITIAL_ALPHA;
-        n[1] -= (alpha * (n[1] - g)) / INITIAL_ALPHA;
-        n[2] -= (alpha * (n[2] - r)) / INITIAL_ALPHA;
+        networkB[i] -= (alpha * (networkB[i] - b)) / INITIAL_ALPHA;
+        networkG[i] -= (alpha * (networkG[i] - g)) / INITIAL_ALPHA;
+        networkR[i] -= (alpha * (networkR[i] - r)) / INITIAL_ALPHA;
     }
 
     /**
@@ -457,47 +507,45 @@ public class ColorQuantizer {
         // 找到最接近的神经元（最小距离）并更新频率
         // 找到最佳神经元（最小距离-偏差）并返回位置
         // 对于频繁选择的神经元，freq[i]较高，bias[i]为负
+        // 距离计算与频率更新各自是无分支的连续循环, 可由 JIT 向量化
 
-        int i, dist, a, biasDist, betaFreq;
+        int i, dist, biasDist, betaFreq;
         int bestPos, bestBiasPos, bestDist, bestBiasDist;
-        int[] n;
+        int[] nb = networkB;
+        int[] ng = networkG;
+        int[] nr = networkR;
+        int[] d = distances;
+        int[] bs = bias;
+        int[] fq = frequency;
+
+        for (i = 0; i < COLOR_COUNT; i++) {
+            d[i] = Math.abs(nb[i] - b) + Math.abs(ng[i] - g) + Math.abs(nr[i] - r);
+        }
 
         bestDist = ~(1 << 31);
         bestBiasDist = bestDist;
         bestPos = -1;
         bestBiasPos = bestPos;
-
         for (i = 0; i < COLOR_COUNT; i++) {
-            n = network[i];
-            dist = n[0] - b;
-            if (dist < 0) {
-                dist = -dist;
-            }
-            a = n[1] - g;
-            if (a < 0) {
-                a = -a;
-            }
-            dist += a;
-            a = n[2] - r;
-            if (a < 0) {
-                a = -a;
-            }
-            dist += a;
+            dist = d[i];
             if (dist < bestDist) {
                 bestDist = dist;
                 bestPos = i;
             }
-            biasDist = dist - ((bias[i]) >> (INT_BIAS_SHIFT - NET_BIAS_SHIFT));
+            biasDist = dist - (bs[i] >> (INT_BIAS_SHIFT - NET_BIAS_SHIFT));
             if (biasDist < bestBiasDist) {
                 bestBiasDist = biasDist;
                 bestBiasPos = i;
             }
-            betaFreq = (frequency[i] >> BETA_SHIFT);
-            frequency[i] -= betaFreq;
-            bias[i] += (betaFreq << GAMMA_SHIFT);
         }
-        frequency[bestPos] += BETA;
-        bias[bestPos] -= BETA_GAMMA;
+
+        for (i = 0; i < COLOR_COUNT; i++) {
+            betaFreq = fq[i] >> BETA_SHIFT;
+            fq[i] -= betaFreq;
+            bs[i] += betaFreq << GAMMA_SHIFT;
+        }
+        fq[bestPos] += BETA;
+        bs[bestPos] -= BETA_GAMMA;
         return (bestBiasPos);
     }
-}
\ No newline at end of file
+}
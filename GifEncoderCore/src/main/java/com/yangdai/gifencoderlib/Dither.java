@@ -0,0 +1,25 @@
+package com.yangdai.gifencoderlib;
+
+/**
+ * 映射到颜色表之前的抖动方式, 减轻渐变上的色带. 直接使用原色的帧不抖动
+ *
+ * @author 30415
+ */
+public enum Dither {
+    /**
+     * 不抖动, 每个像素取最接近的颜色 (默认)
+     */
+    NONE,
+    /**
+     * 8x8 Bayer 有序抖动, 每个像素只与自身位置有关, 开销最小, 画面稳定不闪烁
+     */
+    BAYER,
+    /**
+     * Floyd-Steinberg 误差扩散, 误差按 7/16, 3/16, 5/16, 1/16 分给右侧与下一行
+     */
+    FLOYD_STEINBERG,
+    /**
+     * Sierra Lite 误差扩散, 误差按 2/4, 1/4, 1/4 分给右侧与下一行, 比 Floyd-Steinberg 略快
+     */
+    SIERRA_LITE
+}
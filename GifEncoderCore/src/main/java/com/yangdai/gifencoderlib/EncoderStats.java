@@ -0,0 +1,125 @@
+package com.yangdai.gifencoderlib;
+
+/**
+ * 编码统计, 每写出一帧更新一次
+ *
+ * @author 30415
+ */
+public class EncoderStats {
+
+    private int frameCount;
+    private int duplicateCount;
+    private long colorLookups;
+    private long colorCacheHits;
+    private float[] frameCacheHitRates = new float[16];
+    private long sampleFactorSum;
+    private int quantizedFrames;
+    private int reusedPalettes;
+    private int exactPalettes;
+
+    synchronized void recordFrame(FrameEncoder frame) {
+        int lookups = frame.getColorCacheLookups();
+        int hits = frame.getColorCacheHits();
+        if (frameCount == frameCacheHitRates.length) {
+            float[] grown = new float[frameCount * 2];
+            System.arraycopy(frameCacheHitRates, 0, grown, 0, frameCount);
+            frameCacheHitRates = grown;
+        }
+        frameCacheHitRates[frameCount++] = lookups > 0 ? (float) hits / lookups : 0f;
+        colorLookups += lookups;
+        colorCacheHits += hits;
+        int factor = frame.getLastSampleFactor();
+        if (factor > 0) {
+            sampleFactorSum += factor;
+            quantizedFrames++;
+        }
+        if (frame.isPaletteReused()) {
+            reusedPalettes++;
+        }
+        if (frame.isPaletteExact()) {
+            exactPalettes++;
+        }
+    }
+
+    synchronized void recordDuplicate() {
+        duplicateCount++;
+    }
+
+    synchronized void reset() {
+        frameCount = 0;
+        duplicateCount = 0;
+        colorLookups = 0;
+        colorCacheHits = 0;
+        sampleFactorSum = 0;
+        quantizedFrames = 0;
+        reusedPalettes = 0;
+        exactPalettes = 0;
+    }
+
+    /**
+     * 已写出的帧数
+     */
+    public synchronized int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * 因与上一帧重复而被合并的帧数
+     */
+    public synchronized int getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    /**
+     * 所有帧的颜色缓存命中率
+     */
+    public synchronized float getColorCacheHitRate() {
+        return colorLookups > 0 ? (float) colorCacheHits / colorLookups : 0f;
+    }
+
+    /**
+     * 第 frame 帧的颜色缓存命中率, 未启用缓存时为 0
+     */
+    public synchronized float getFrameCacheHitRate(int frame) {
+        if (frame < 0 || frame >= frameCount) {
+            throw new IndexOutOfBoundsException("frame " + frame + ", count " + frameCount);
+        }
+        return frameCacheHitRates[frame];
+    }
+
+    /**
+     * 生成局部颜色表时使用的平均采样因子, 使用全局颜色表时为 0
+     */
+    public synchronized float getAverageSampleFactor() {
+        return quantizedFrames > 0 ? (float) sampleFactorSum / quantizedFrames : 0f;
+    }
+
+    /**
+     * 沿用之前颜色表的帧数
+     */
+    public synchronized int getPaletteReuseCount() {
+        return reusedPalettes;
+    }
+
+    /**
+     * 重新训练颜色表的帧数
+     */
+    public synchronized int getRetrainCount() {
+        return quantizedFrames;
+    }
+
+    /**
+     * 使用局部颜色表的帧中沿用颜色表的比例
+     */
+    public synchronized float getPaletteReuseRate() {
+        int total = reusedPalettes + quantizedFrames + exactPalettes;
+        return total > 0 ? (float) reusedPalettes / total : 0f;
+    }
+
+    /**
+     * 颜色不超过 256 种, 直接使用原色作为颜色表的帧数
+     */
+    public synchronized int getExactPaletteCount() {
+        return exactPalettes;
+    }
+}
@@ -0,0 +1,145 @@
+package com.yangdai.gifencoderlib;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 颜色不超过 256 种的帧直接以原色作为颜色表, 不需要训练, 映射没有误差
+ * 统计所有像素 (忽略采样因子), 第 257 种颜色出现时立即停止
+ *
+ * @author 30415
+ */
+class ExactPalette implements Quantizer {
+
+    private static final int MAX_COLORS = 256;
+    /**
+     * 开放寻址表, 装载率不超过 1/4
+     */
+    private static final int TABLE_BITS = 10;
+    private static final int VALID = 1 << 24;
+    private static final int HASH_MULTIPLIER = 0x9E3779B1;
+
+    private final int[] keys = new int[1 << TABLE_BITS];
+    private final byte[] indices = new byte[1 << TABLE_BITS];
+    /**
+     * BGR 顺序的原色
+     */
+    private final byte[] colorMap = new byte[MAX_COLORS * 3];
+    /**
+     * 沿用颜色表时映射表中没有的颜色
+     */
+    private final InverseColorMap fallback = new InverseColorMap();
+    private volatile boolean fallbackReady;
+    private byte[] input;
+    private ByteBuffer inputBuffer;
+    private int length;
+    private int count;
+
+    @Override
+    public void reset(byte[] input, int length, int sample) {
+        this.input = input;
+        this.inputBuffer = null;
+        this.length = length;
+    }
+
+    @Override
+    public void reset(ByteBuffer input, int length, int sample) {
+        this.input = null;
+        this.inputBuffer = input;
+        this.length = length;
+    }
+
+    /**
+     * 颜色超过 256 种时返回 null
+     */
+    @Override
+    public byte[] process() {
+        clear();
+        return add(input, inputBuffer, length) ? colors() : null;
+    }
+
+    /**
+     * 清空已统计的颜色, 之后可以用 add 逐个加入多帧
+     */
+    void clear() {
+        Arrays.fill(keys, 0);
+        count = 0;
+        fallbackReady = false;
+    }
+
+    /**
+     * 加入一段 BGR 数据中的所有颜色, p 为 null 时从 buffer 读取. 累计超过 256 种时返回 false
+     */
+    boolean add(byte[] p, ByteBuffer buffer, int length) {
+        int last = -1;
+        for (int i = 0; i + 2 < length; i += 3) {
+            int key;
+            if (p != null) {
+                key = VALID | (p[i + 2] & 0xff) << 16 | (p[i + 1] & 0xff) << 8 | (p[i] & 0xff);
+            } else {
+                key = VALID | (buffer.get(i + 2) & 0xff) << 16 | (buffer.get(i + 1) & 0xff) << 8 | (buffer.get(i) & 0xff);
+            }
+            if (key == last) {
+                // 相邻像素同色很常见, 跳过查表
+                continue;
+            }
+            last = key;
+            int slot = find(key);
+            if (keys[slot] == key) {
+                continue;
+            }
+            if (count == MAX_COLORS) {
+                return false;
+            }
+            keys[slot] = key;
+            indices[slot] = (byte) count;
+            colorMap[count * 3] = (byte) key;
+            colorMap[count * 3 + 1] = (byte) (key >> 8);
+            colorMap[count * 3 + 2] = (byte) (key >> 16);
+            count++;
+        }
+        return true;
+    }
+
+    /**
+     * 已统计的原色, BGR 顺序
+     */
+    byte[] colors() {
+        return Arrays.copyOf(colorMap, Math.max(count, 1) * 3);
+    }
+
+    /**
+     * 分带映射时可能有多个线程同时遇到新颜色, 只构建一次逆颜色表
+     */
+    private synchronized void prepareFallback() {
+        if (!fallbackReady) {
+            fallback.set(colorMap, Math.max(count, 1));
+            fallbackReady = true;
+        }
+    }
+
+    @Override
+    public int map(int b, int g, int r) {
+        int key = VALID | (r << 16) | (g << 8) | b;
+        int slot = find(key);
+        if (keys[slot] == key) {
+            return indices[slot] & 0xff;
+        }
+        if (!fallbackReady) {
+            prepareFallback();
+        }
+        return fallback.nearest(b, g, r);
+    }
+
+    /**
+     * key 所在的槽, 或者应插入的空槽
+     */
+    private int find(int key) {
+        int mask = keys.length - 1;
+        int slot = (key * HASH_MULTIPLIER) >>> (32 - TABLE_BITS);
+        while (keys[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+}
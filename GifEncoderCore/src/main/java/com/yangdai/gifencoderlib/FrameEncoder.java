@@ -0,0 +1,1208 @@
+package com.yangdai.gifencoderlib;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * 单帧编码器: 提取像素, 生成局部颜色表, LZW 压缩
+ * 每帧使用独立的颜色表, 不同实例之间互不依赖, 可以在不同线程上同时编码
+ *
+ * @author 30415
+ */
+class FrameEncoder {
+
+    /**
+     * 延迟时间在图形控制扩展中的偏移
+     */
+    private static final int DELAY_OFFSET = 4;
+    static final int MIN_SAMPLE_FACTOR = 1;
+    static final int MAX_SAMPLE_FACTOR = 30;
+    /**
+     * 自适应采样时每帧最多参与学习的像素数
+     */
+    static final int MAX_LEARN_SAMPLES = 64 * 1024;
+    /**
+     * 耗时估计的平滑系数
+     */
+    private static final double SMOOTHING = 0.3;
+    /**
+     * 8x8 Bayer 矩阵换算成的阈值偏移 (-8..7)
+     */
+    private static final int[] BAYER_OFFSETS = bayerOffsets();
+    /**
+     * 分带并行时每带至少的像素数, 更小的帧不值得调度
+     */
+    private static final int MIN_BAND_PIXELS = 32 * 1024;
+    /**
+     * 分段 LZW 压缩时每段至少的像素数, 段越短重新建表的损失越大
+     */
+    private static final int MIN_LZW_SEGMENT_PIXELS = 256 * 1024;
+
+    int width;
+    int height;
+    /**
+     * 本帧图像在画布上的区域, 默认为整帧
+     */
+    int imageX;
+    int imageY;
+    int imageWidth;
+    int imageHeight;
+    /**
+     * 单位百分之一秒
+     */
+    int delay = 0;
+    /**
+     * 处置方法, 1 表示保留当前帧, 下一帧在其上绘制
+     */
+    int disposal = 0;
+    /**
+     * 透明色索引, -1 表示不使用透明色
+     */
+    int transparentIndex = -1;
+    /**
+     * BGR 像素, 指向 ownPixels 或直接借用调用方的数组
+     */
+    byte[] pixels;
+    byte[] indexedPixels;
+    /**
+     * 量化生成的完整颜色表 (RGB), 沿用颜色表时以此映射
+     */
+    byte[] colorTab;
+    final boolean[] usedEntry = new boolean[256];
+    /**
+     * 实际写出的颜色表: 只保留本帧用到的颜色与透明色, 共 paletteSize 个
+     * 颜色表大小为 2 的 paletteBits 次方, LZW 的初始编码位数与之一致
+     */
+    final byte[] compactTab = new byte[3 * 256];
+    int paletteSize;
+    int paletteBits = 8;
+    /**
+     * 原索引到紧凑索引的映射
+     */
+    private final byte[] remap = new byte[256];
+    /**
+     * 以下缓冲区按帧尺寸分配一次, 之后每帧复用
+     */
+    private byte[] ownPixels;
+    /**
+     * 堆外模式下以 direct buffer 代替 pixels, indexedPixels 与 unchanged, 大帧不占用 Java 堆
+     */
+    private boolean offHeap;
+    private ByteBuffer directPixels;
+    private ByteBuffer ownDirectPixels;
+    private ByteBuffer directIndexed;
+    private ByteBuffer directUnchanged;
+    /**
+     * 堆外模式下 diff 逐行移动像素时使用, 只有一行大小
+     */
+    private byte[] rowScratch;
+    private QuantizerType quantizerType = QuantizerType.NEUQUANT;
+    private Quantizer quantizer;
+    private ExactPalette exactPalette;
+    /**
+     * 生成当前 colorTab 的量化器, quantizer 或 exactPalette
+     */
+    private Quantizer palette;
+    private boolean paletteExact;
+    /**
+     * 颜色量化的采样因子, 0 表示按像素数与时间预算自适应选择
+     */
+    private int sampleFactor = Quality.BALANCED.sampleFactor;
+    /**
+     * 自适应采样时每帧的时间预算, 0 表示只限制学习的像素数
+     */
+    private long frameBudgetNanos;
+    /**
+     * 最近几帧的平滑耗时: 学习每个样本, 以及映射与压缩每个像素
+     */
+    private double nanosPerSample;
+    private double nanosPerPixel;
+    private long learnNanos;
+    private int lastSampleFactor;
+    /**
+     * 不为 null 时相似的帧沿用上一次训练出的颜色表
+     */
+    private PaletteTracker paletteTracker;
+    private boolean paletteReused;
+    private Dither dither = Dither.NONE;
+    /**
+     * 误差扩散的当前行与下一行, 每行两端各多一个像素, 误差放大 16 倍保存
+     */
+    private int[] errorRows;
+    private LZWEncoder lzwEncoder;
+    /**
+     * 分段压缩时其余各段使用的编码器
+     */
+    private LZWEncoder[] lzwSegments;
+    private boolean parallelLzw;
+    private boolean deferredClear;
+    /**
+     * 每个分带一个颜色缓存, 第 0 个也用于不分带的映射
+     */
+    private ColorIndexCache[] colorCaches;
+    private int colorCacheBits;
+    private ForkJoinPool bandPool;
+    private boolean[][] bandUsed;
+    /**
+     * 不为 null 时所有帧共用此颜色表, 只做映射, 不写局部颜色表
+     */
+    private GlobalPalette globalPalette;
+    /**
+     * 变化区域内与上一帧相同的像素, 编码为透明色
+     */
+    private boolean[] unchanged;
+    private boolean hasUnchanged;
+    /**
+     * 编码完成的一帧: 图形控制扩展, 图象标识符, 局部颜色表与 LZW 数据
+     * 写出前仍可修改其中的延迟时间
+     */
+    final OutputBuffer block = new OutputBuffer(4096);
+    /**
+     * 用于识别重复帧
+     */
+    final FrameSignature signature = new FrameSignature();
+
+    /**
+     * 生成颜色表并将图像编码到 block 中
+     */
+    void encode() {
+        long start = System.nanoTime();
+        learnNanos = 0;
+        analyzePixels();
+        compress();
+        if (learnNanos > 0) {
+            int pixelCount = imageWidth * imageHeight;
+            long rest = System.nanoTime() - start - learnNanos;
+            nanosPerPixel = smooth(nanosPerPixel, (double) rest / pixelCount);
+        }
+    }
+
+    /**
+     * 将已生成颜色表的图像编码到 block 中
+     */
+    void compress() {
+        block.reset();
+        writeGraphicCtrlExt(block);
+        writeImageDesc(block);
+        if (globalPalette == null) {
+            writePalette(block);
+        }
+        writePixels(block);
+    }
+
+    /**
+     * 以当前的 delay 更新图形控制扩展, 再一次性写出整帧
+     */
+    void writeTo(OutputStream out) throws IOException {
+        block.set(DELAY_OFFSET, delay);
+        block.set(DELAY_OFFSET + 1, delay >> 8);
+        block.writeTo(out);
+    }
+
+    void computeSignature() {
+        if (offHeap) {
+            signature.compute(directPixels, width, height);
+        } else {
+            signature.compute(pixels, width, height);
+        }
+    }
+
+    /**
+     * 生成颜色表
+     */
+    void analyzePixels() {
+        if (globalPalette != null) {
+            lastSampleFactor = 0;
+            colorTab = globalPalette.colorTab;
+            resetColorCaches(false);
+            mapPixels(globalPalette.quantizer);
+            return;
+        }
+        int nPix = imageWidth * imageHeight;
+        PaletteTracker tracker = paletteTracker;
+        paletteReused = false;
+        paletteExact = false;
+        if (tracker != null) {
+            // 重新训练时当前帧的直方图成为参考, 因此每帧都要统计
+            tracker.updateHistogram(pixels, directPixels, nPix);
+        }
+        if (tracker != null && palette != null && tracker.matchesReference()) {
+            // 与参考帧相似, 沿用颜色表与颜色缓存, 映射误差过大时再重新训练
+            lastSampleFactor = 0;
+            resetColorCaches(false);
+            mapPixels(palette);
+            if (tracker.accepts(mappingError())) {
+                paletteReused = true;
+                return;
+            }
+        }
+        int len = nPix * 3;
+        ExactPalette exact = exactPalette;
+        if (exact == null) {
+            exact = exactPalette = new ExactPalette();
+        }
+        resetQuantizer(exact, len, 1);
+        byte[] map = exact.process();
+        Quantizer nq;
+        if (map != null) {
+            // 颜色不超过 256 种, 直接使用原色, 不需要训练
+            nq = exact;
+            lastSampleFactor = 0;
+            paletteExact = true;
+        } else {
+            int sample = lastSampleFactor = chooseSampleFactor(nPix);
+            nq = quantizer;
+            if (nq == null) {
+                nq = quantizer = quantizerType.create();
+            }
+            resetQuantizer(nq, len, sample);
+            long start = System.nanoTime();
+            map = nq.process();
+            learnNanos = Math.max(System.nanoTime() - start, 1);
+            nanosPerSample = smooth(nanosPerSample, (double) learnNanos / Math.max(len / (3 * sample), 1));
+        }
+        colorTab = map;
+        palette = nq;
+        // convert map from BGR to RGB
+        for (int i = 0; i < colorTab.length; i += 3) {
+            byte temp = colorTab[i];
+            colorTab[i] = colorTab[i + 2];
+            colorTab[i + 2] = temp;
+        }
+        resetColorCaches(true);
+        mapPixels(nq);
+        if (tracker != null) {
+            tracker.setReference(mappingError());
+        }
+    }
+
+    private void resetQuantizer(Quantizer nq, int len, int sample) {
+        if (offHeap) {
+            nq.reset(directPixels, len, sample);
+        } else {
+            nq.reset(pixels, len, sample);
+        }
+    }
+
+    private double mappingError() {
+        return PaletteTracker.mappingError(pixels, directPixels, indexedPixels, directIndexed, compactTab,
+                transparentIndex, imageWidth * imageHeight);
+    }
+
+    /**
+     * 相似帧沿用颜色表, sceneThreshold 为直方图距离阈值, 0 表示每帧重新训练
+     */
+    void setPaletteReuse(float sceneThreshold) {
+        paletteTracker = sceneThreshold > 0 ? new PaletteTracker(sceneThreshold) : null;
+    }
+
+    /**
+     * 上一帧是否沿用了之前的颜色表
+     */
+    boolean isPaletteReused() {
+        return paletteReused;
+    }
+
+    /**
+     * 上一帧是否直接使用原色作为颜色表
+     */
+    boolean isPaletteExact() {
+        return paletteExact;
+    }
+
+    /**
+     * 设置生成局部颜色表的量化算法
+     */
+    void setQuantizerType(QuantizerType type) {
+        if (quantizerType != type) {
+            quantizerType = type;
+            quantizer = null;
+            palette = null;
+        }
+    }
+
+    /**
+     * 固定采样因子时直接使用; 自适应时学习的像素数不超过 MAX_LEARN_SAMPLES,
+     * 有时间预算时再按之前几帧的耗时, 让学习时间不超过预算减去映射与压缩的时间
+     */
+    int chooseSampleFactor(int pixelCount) {
+        if (sampleFactor > 0) {
+            return sampleFactor;
+        }
+        return adaptiveSampleFactor(pixelCount, frameBudgetNanos, nanosPerSample, nanosPerPixel);
+    }
+
+    static int adaptiveSampleFactor(int pixelCount, long budgetNanos, double nanosPerSample, double nanosPerPixel) {
+        int factor = (pixelCount + MAX_LEARN_SAMPLES - 1) / MAX_LEARN_SAMPLES;
+        if (budgetNanos > 0 && nanosPerSample > 0) {
+            double learnBudget = budgetNanos - nanosPerPixel * pixelCount;
+            if (learnBudget <= 0) {
+                factor = MAX_SAMPLE_FACTOR;
+            } else {
+                factor = Math.max(factor, (int) Math.ceil(pixelCount * nanosPerSample / learnBudget));
+            }
+        }
+        return Math.max(MIN_SAMPLE_FACTOR, Math.min(factor, MAX_SAMPLE_FACTOR));
+    }
+
+    private static double smooth(double average, double value) {
+        return average == 0 ? value : average + (value - average) * SMOOTHING;
+    }
+
+    /**
+     * 设置采样因子 (1..30), 0 表示自适应, 此时 budgetNanos 为每帧的时间预算
+     */
+    void setSampleFactor(int factor, long budgetNanos) {
+        sampleFactor = factor;
+        frameBudgetNanos = budgetNanos;
+    }
+
+    /**
+     * 上一次生成局部颜色表使用的采样因子
+     */
+    int getLastSampleFactor() {
+        return lastSampleFactor;
+    }
+
+    /**
+     * 将像素映射到颜色表索引
+     * 未变化的像素使用本帧没有用到的索引作为透明色, 找不到空闲索引时照常映射
+     */
+    private void mapPixels(Quantizer nq) {
+        Arrays.fill(usedEntry, false);
+        transparentIndex = -1;
+        boolean dithered = dither != Dither.NONE && nq != exactPalette;
+        if (dithered && dither != Dither.BAYER) {
+            mapPixelsDiffused(nq);
+        } else {
+            mapBands(nq, dithered);
+        }
+        if (hasUnchanged) {
+            mapUnchanged(nq);
+        }
+        if (globalPalette != null) {
+            paletteBits = globalPalette.colorDepth;
+        } else {
+            compactPalette();
+        }
+    }
+
+    /**
+     * 按行分带映射变化的像素. 设置了 bandPool 且帧足够大时各带在不同线程上同时映射,
+     * 每带使用各自的颜色缓存与 usedEntry, 完成后合并
+     */
+    private void mapBands(Quantizer nq, boolean bayer) {
+        int h = imageHeight;
+        int bands = bandCount(imageWidth, h);
+        if (bands == 1) {
+            mapRows(nq, bayer, 0, h, usedEntry, colorCache(0));
+            return;
+        }
+        if (bandUsed == null || bandUsed.length < bands) {
+            bandUsed = new boolean[bands][256];
+        }
+        for (int band = 0; band < bands; band++) {
+            colorCache(band);
+            // 在调用线程上创建缓存, 各带只读取数组
+        }
+        runBands(h, bands, (band, startRow, endRow) -> {
+            boolean[] used = band == 0 ? usedEntry : bandUsed[band];
+            if (band > 0) {
+                Arrays.fill(used, false);
+            }
+            mapRows(nq, bayer, startRow, endRow, used, colorCache(band));
+        });
+        for (int band = 1; band < bands; band++) {
+            boolean[] used = bandUsed[band];
+            for (int i = 0; i < used.length; i++) {
+                usedEntry[i] |= used[i];
+            }
+        }
+    }
+
+    private void mapRows(Quantizer nq, boolean bayer, int startRow, int endRow, boolean[] used,
+                         ColorIndexCache cache) {
+        if (bayer) {
+            mapRowsBayer(nq, startRow, endRow, used, cache);
+        } else if (offHeap) {
+            mapRowsDirect(nq, startRow, endRow, used, cache);
+        } else {
+            mapRowsHeap(nq, startRow, endRow, used, cache);
+        }
+    }
+
+    private void mapRowsHeap(Quantizer nq, int startRow, int endRow, boolean[] used, ColorIndexCache cache) {
+        boolean[] skip = hasUnchanged ? unchanged : null;
+        byte[] p = pixels;
+        byte[] indexed = indexedPixels;
+        int end = endRow * imageWidth;
+        for (int i = startRow * imageWidth, k = i * 3; i < end; i++, k += 3) {
+            if (skip != null && skip[i]) {
+                continue;
+            }
+            int index = mapColor(nq, cache, p[k] & 0xff, p[k + 1] & 0xff, p[k + 2] & 0xff);
+            used[index] = true;
+            indexed[i] = (byte) index;
+        }
+    }
+
+    /**
+     * 与 mapRowsHeap 相同, 像素, 索引与掩码都在堆外
+     */
+    private void mapRowsDirect(Quantizer nq, int startRow, int endRow, boolean[] used, ColorIndexCache cache) {
+        ByteBuffer p = directPixels;
+        ByteBuffer indexed = directIndexed;
+        ByteBuffer skip = hasUnchanged ? directUnchanged : null;
+        int end = endRow * imageWidth;
+        for (int i = startRow * imageWidth, k = i * 3; i < end; i++, k += 3) {
+            if (skip != null && skip.get(i) != 0) {
+                continue;
+            }
+            int index = mapColor(nq, cache, p.get(k) & 0xff, p.get(k + 1) & 0xff, p.get(k + 2) & 0xff);
+            used[index] = true;
+            indexed.put(i, (byte) index);
+        }
+    }
+
+    /**
+     * 有序抖动: 每个分量叠加与像素位置有关的阈值后再映射, 各行互不依赖, 可以分带并行
+     */
+    private void mapRowsBayer(Quantizer nq, int startRow, int endRow, boolean[] used, ColorIndexCache cache) {
+        int w = imageWidth;
+        byte[] p = pixels;
+        ByteBuffer pb = directPixels;
+        byte[] indexed = indexedPixels;
+        ByteBuffer ib = directIndexed;
+        for (int y = startRow; y < endRow; y++) {
+            for (int x = 0, i = y * w, k = i * 3; x < w; x++, i++, k += 3) {
+                if (isUnchanged(i)) {
+                    continue;
+                }
+                int t = BAYER_OFFSETS[(y & 7) << 3 | (x & 7)];
+                int b;
+                int g;
+                int r;
+                if (p != null) {
+                    b = p[k] & 0xff;
+                    g = p[k + 1] & 0xff;
+                    r = p[k + 2] & 0xff;
+                } else {
+                    b = pb.get(k) & 0xff;
+                    g = pb.get(k + 1) & 0xff;
+                    r = pb.get(k + 2) & 0xff;
+                }
+                int index = mapColor(nq, cache, clamp(b + t), clamp(g + t), clamp(r + t));
+                used[index] = true;
+                if (indexed != null) {
+                    indexed[i] = (byte) index;
+                } else {
+                    ib.put(i, (byte) index);
+                }
+            }
+        }
+    }
+
+    /**
+     * 误差扩散: 把每个像素的量化误差按权重累加到右侧与下一行, 只使用两行整数缓冲区
+     * 每个像素依赖之前的像素, 只能在一个线程上按顺序映射. 未变化的像素不产生也不接收误差
+     */
+    private void mapPixelsDiffused(Quantizer nq) {
+        int w = imageWidth;
+        int h = imageHeight;
+        byte[] p = pixels;
+        ByteBuffer pb = directPixels;
+        byte[] indexed = indexedPixels;
+        ByteBuffer ib = directIndexed;
+        byte[] tab = colorTab;
+        ColorIndexCache cache = colorCache(0);
+        boolean floyd = dither == Dither.FLOYD_STEINBERG;
+        int rowLength = (w + 2) * 3;
+        int[] rows = errorRows;
+        if (rows == null || rows.length < rowLength * 2) {
+            rows = errorRows = new int[rowLength * 2];
+        } else {
+            Arrays.fill(rows, 0, rowLength * 2, 0);
+        }
+        int cur = 0;
+        int next = rowLength;
+        for (int y = 0; y < h; y++) {
+            for (int x = 0, i = y * w, k = i * 3; x < w; x++, i++, k += 3) {
+                if (isUnchanged(i)) {
+                    continue;
+                }
+                int b;
+                int g;
+                int r;
+                if (p != null) {
+                    b = p[k] & 0xff;
+                    g = p[k + 1] & 0xff;
+                    r = p[k + 2] & 0xff;
+                } else {
+                    b = pb.get(k) & 0xff;
+                    g = pb.get(k + 1) & 0xff;
+                    r = pb.get(k + 2) & 0xff;
+                }
+                int e = (x + 1) * 3;
+                b = clamp(b + ((rows[cur + e] + 8) >> 4));
+                g = clamp(g + ((rows[cur + e + 1] + 8) >> 4));
+                r = clamp(r + ((rows[cur + e + 2] + 8) >> 4));
+                int index = mapColor(nq, cache, b, g, r);
+                usedEntry[index] = true;
+                if (indexed != null) {
+                    indexed[i] = (byte) index;
+                } else {
+                    ib.put(i, (byte) index);
+                }
+                // colorTab 为 RGB 顺序
+                int eb = b - (tab[index * 3 + 2] & 0xff);
+                int eg = g - (tab[index * 3 + 1] & 0xff);
+                int er = r - (tab[index * 3] & 0xff);
+                if (floyd) {
+                    diffuse(rows, cur + e + 3, eb, eg, er, 7);
+                    diffuse(rows, next + e - 3, eb, eg, er, 3);
+                    diffuse(rows, next + e, eb, eg, er, 5);
+                    diffuse(rows, next + e + 3, eb, eg, er, 1);
+                } else {
+                    diffuse(rows, cur + e + 3, eb, eg, er, 8);
+                    diffuse(rows, next + e - 3, eb, eg, er, 4);
+                    diffuse(rows, next + e, eb, eg, er, 4);
+                }
+            }
+            int t = cur;
+            cur = next;
+            next = t;
+            Arrays.fill(rows, next, next + rowLength, 0);
+        }
+    }
+
+    /**
+     * 未变化的像素使用本帧没有用到的索引作为透明色, 找不到空闲索引时照常映射
+     */
+    private void mapUnchanged(Quantizer nq) {
+        transparentIndex = findUnusedEntry();
+        ColorIndexCache cache = colorCache(0);
+        byte[] p = pixels;
+        ByteBuffer pb = directPixels;
+        byte[] indexed = indexedPixels;
+        ByteBuffer ib = directIndexed;
+        int nPix = imageWidth * imageHeight;
+        for (int i = 0, k = 0; i < nPix; i++, k += 3) {
+            if (!isUnchanged(i)) {
+                continue;
+            }
+            int index = transparentIndex;
+            if (index < 0) {
+                index = p != null ? mapColor(nq, cache, p[k] & 0xff, p[k + 1] & 0xff, p[k + 2] & 0xff)
+                        : mapColor(nq, cache, pb.get(k) & 0xff, pb.get(k + 1) & 0xff, pb.get(k + 2) & 0xff);
+                usedEntry[index] = true;
+            }
+            if (indexed != null) {
+                indexed[i] = (byte) index;
+            } else {
+                ib.put(i, (byte) index);
+            }
+        }
+    }
+
+    private boolean isUnchanged(int i) {
+        if (!hasUnchanged) {
+            return false;
+        }
+        return offHeap ? directUnchanged.get(i) != 0 : unchanged[i];
+    }
+
+    private static void diffuse(int[] rows, int o, int eb, int eg, int er, int weight) {
+        rows[o] += eb * weight;
+        rows[o + 1] += eg * weight;
+        rows[o + 2] += er * weight;
+    }
+
+    private static int clamp(int v) {
+        return v < 0 ? 0 : Math.min(v, 255);
+    }
+
+    private static int[] bayerOffsets() {
+        int[] offsets = new int[64];
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                // x ^ y 与 y 从低位起逐位交错, 得到 Bayer 矩阵的值 0..63
+                int v = 0;
+                int xy = x ^ y;
+                for (int bit = 0; bit < 3; bit++) {
+                    v = v << 2 | ((xy >> bit) & 1) << 1 | ((y >> bit) & 1);
+                }
+                offsets[y << 3 | x] = (v - 32) >> 2;
+            }
+        }
+        return offsets;
+    }
+
+    /**
+     * 设置抖动方式
+     */
+    void setDither(Dither dither) {
+        this.dither = dither;
+    }
+
+    /**
+     * 把用到的颜色按原顺序移到颜色表开头, 透明色紧随其后, 再选择能容纳它们的最小颜色表
+     * 顺序不变时不需要重写索引
+     */
+    private void compactPalette() {
+        byte[] tab = compactTab;
+        byte[] map = remap;
+        int n = 0;
+        boolean identity = true;
+        for (int i = 0; i < usedEntry.length; i++) {
+            if (!usedEntry[i]) {
+                continue;
+            }
+            map[i] = (byte) n;
+            identity &= i == n;
+            tab[n * 3] = colorTab[i * 3];
+            tab[n * 3 + 1] = colorTab[i * 3 + 1];
+            tab[n * 3 + 2] = colorTab[i * 3 + 2];
+            n++;
+        }
+        if (transparentIndex >= 0) {
+            map[transparentIndex] = (byte) n;
+            identity &= transparentIndex == n;
+            tab[n * 3] = 0;
+            tab[n * 3 + 1] = 0;
+            tab[n * 3 + 2] = 0;
+            transparentIndex = n++;
+        }
+        paletteSize = Math.max(n, 1);
+        paletteBits = colorDepth(paletteSize);
+        if (identity) {
+            return;
+        }
+        int nPix = imageWidth * imageHeight;
+        if (offHeap) {
+            ByteBuffer indexed = directIndexed;
+            for (int i = 0; i < nPix; i++) {
+                indexed.put(i, map[indexed.get(i) & 0xff]);
+            }
+        } else {
+            byte[] indexed = indexedPixels;
+            for (int i = 0; i < nPix; i++) {
+                indexed[i] = map[indexed[i] & 0xff];
+            }
+        }
+    }
+
+    /**
+     * 容纳 colors 种颜色所需的位数 (1..8)
+     */
+    static int colorDepth(int colors) {
+        int bits = 1;
+        while (bits < 8 && (1 << bits) < colors) {
+            bits++;
+        }
+        return bits;
+    }
+
+    /**
+     * 本帧没有用到的第一个索引, 都用到时返回 -1
+     * 使用全局颜色表时只在全局颜色表的范围内查找
+     */
+    private int findUnusedEntry() {
+        int limit = globalPalette != null ? 1 << globalPalette.colorDepth : usedEntry.length;
+        for (int i = 0; i < limit; i++) {
+            if (!usedEntry[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int mapColor(Quantizer nq, ColorIndexCache cache, int b, int g, int r) {
+        return cache != null ? cache.map(nq, b, g, r) : nq.map(b, g, r);
+    }
+
+    /**
+     * 分带的数量: 未设置 bandPool 时为 1, 否则不超过并行度与行数, 每带至少 MIN_BAND_PIXELS 个像素
+     */
+    private int bandCount(int w, int h) {
+        ForkJoinPool pool = bandPool;
+        if (pool == null) {
+            return 1;
+        }
+        long limit = Math.max(1, (long) w * h / MIN_BAND_PIXELS);
+        return (int) Math.min(Math.min(pool.getParallelism(), h), limit);
+    }
+
+    /**
+     * 把 rows 行平均分成 bands 带, 第 0 带在调用线程上执行, 其余提交到 bandPool, 全部完成后返回
+     */
+    private void runBands(int rows, int bands, BandAction action) {
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[bands];
+        for (int band = 1; band < bands; band++) {
+            int index = band;
+            int startRow = (int) ((long) rows * band / bands);
+            int endRow = (int) ((long) rows * (band + 1) / bands);
+            tasks[band] = bandPool.submit(() -> action.run(index, startRow, endRow));
+        }
+        try {
+            action.run(0, 0, rows / bands);
+        } finally {
+            for (int band = 1; band < bands; band++) {
+                tasks[band].quietlyJoin();
+            }
+        }
+        for (int band = 1; band < bands; band++) {
+            tasks[band].join();
+            // 重新抛出带内的异常
+        }
+    }
+
+    private interface BandAction {
+        void run(int band, int startRow, int endRow);
+    }
+
+    /**
+     * 第 band 带使用的颜色缓存, 未启用缓存时为 null
+     */
+    private ColorIndexCache colorCache(int band) {
+        ColorIndexCache[] caches = colorCaches;
+        if (caches == null) {
+            return null;
+        }
+        if (band >= caches.length) {
+            caches = colorCaches = Arrays.copyOf(caches, band + 1);
+        }
+        if (caches[band] == null) {
+            caches[band] = new ColorIndexCache(colorCacheBits);
+        }
+        return caches[band];
+    }
+
+    /**
+     * 颜色表改变时 clear 为 true, 否则只重置命中统计
+     */
+    private void resetColorCaches(boolean clear) {
+        if (colorCaches == null) {
+            return;
+        }
+        for (ColorIndexCache cache : colorCaches) {
+            if (cache == null) {
+                continue;
+            }
+            if (clear) {
+                cache.clear();
+            } else {
+                cache.resetStats();
+            }
+        }
+    }
+
+    /**
+     * 与上一帧比较, 只保留变化区域的外接矩形, 矩形内未变化的像素稍后编码为透明色
+     * 比较完成后把当前帧复制到 previous 供下一帧使用, 再把矩形内的像素紧凑地移到 pixels 开头
+     */
+    void diff(byte[] previous) {
+        int w = width;
+        int h = height;
+        byte[] p = pixels;
+        int minX = w;
+        int maxX = -1;
+        int minY = -1;
+        int maxY = -1;
+        for (int y = 0; y < h; y++) {
+            int row = y * w * 3;
+            int first = -1;
+            for (int x = 0, o = row; x < w; x++, o += 3) {
+                if (p[o] != previous[o] || p[o + 1] != previous[o + 1] || p[o + 2] != previous[o + 2]) {
+                    first = x;
+                    break;
+                }
+            }
+            if (first < 0) {
+                continue;
+            }
+            int last = first;
+            for (int x = w - 1, o = row + x * 3; x > first; x--, o -= 3) {
+                if (p[o] != previous[o] || p[o + 1] != previous[o + 1] || p[o + 2] != previous[o + 2]) {
+                    last = x;
+                    break;
+                }
+            }
+            if (minY < 0) {
+                minY = y;
+            }
+            maxY = y;
+            minX = Math.min(minX, first);
+            maxX = Math.max(maxX, last);
+        }
+        if (minY < 0) {
+            // 与上一帧完全相同, 输出一个透明像素
+            minX = maxX = 0;
+            minY = maxY = 0;
+        }
+        imageX = minX;
+        imageY = minY;
+        imageWidth = maxX - minX + 1;
+        imageHeight = maxY - minY + 1;
+
+        int i = 0;
+        for (int y = minY; y <= maxY; y++) {
+            for (int x = minX, o = (y * w + minX) * 3; x <= maxX; x++, o += 3) {
+                unchanged[i++] = p[o] == previous[o] && p[o + 1] == previous[o + 1] && p[o + 2] == previous[o + 2];
+            }
+        }
+        hasUnchanged = true;
+
+        System.arraycopy(p, 0, previous, 0, w * h * 3);
+        if (imageWidth != w) {
+            int rowBytes = imageWidth * 3;
+            for (int y = 0; y < imageHeight; y++) {
+                System.arraycopy(p, ((imageY + y) * w + imageX) * 3, p, y * rowBytes, rowBytes);
+            }
+        } else if (imageY > 0) {
+            System.arraycopy(p, imageY * w * 3, p, 0, imageWidth * imageHeight * 3);
+        }
+    }
+
+    /**
+     * 与 diff(byte[]) 相同, 当前帧与上一帧都在堆外
+     */
+    void diff(ByteBuffer previous) {
+        int w = width;
+        int h = height;
+        ByteBuffer p = directPixels;
+        int minX = w;
+        int maxX = -1;
+        int minY = -1;
+        int maxY = -1;
+        for (int y = 0; y < h; y++) {
+            int row = y * w * 3;
+            int first = -1;
+            for (int x = 0, o = row; x < w; x++, o += 3) {
+                if (!same(p, previous, o)) {
+                    first = x;
+                    break;
+                }
+            }
+            if (first < 0) {
+                continue;
+            }
+            int last = first;
+            for (int x = w - 1, o = row + x * 3; x > first; x--, o -= 3) {
+                if (!same(p, previous, o)) {
+                    last = x;
+                    break;
+                }
+            }
+            if (minY < 0) {
+                minY = y;
+            }
+            maxY = y;
+            minX = Math.min(minX, first);
+            maxX = Math.max(maxX, last);
+        }
+        if (minY < 0) {
+            // 与上一帧完全相同, 输出一个透明像素
+            minX = maxX = 0;
+            minY = maxY = 0;
+        }
+        imageX = minX;
+        imageY = minY;
+        imageWidth = maxX - minX + 1;
+        imageHeight = maxY - minY + 1;
+
+        int i = 0;
+        for (int y = minY; y <= maxY; y++) {
+            for (int x = minX, o = (y * w + minX) * 3; x <= maxX; x++, o += 3) {
+                directUnchanged.put(i++, (byte) (same(p, previous, o) ? 1 : 0));
+            }
+        }
+        hasUnchanged = true;
+
+        ByteBuffer src = p.duplicate();
+        src.clear();
+        src.limit(w * h * 3);
+        ByteBuffer dst = previous.duplicate();
+        dst.clear();
+        dst.put(src);
+        if (imageWidth != w || imageY > 0) {
+            // 源和目标可能重叠, 经一行大小的堆数组逐行移动
+            int rowBytes = imageWidth * 3;
+            if (rowScratch == null || rowScratch.length < rowBytes) {
+                rowScratch = new byte[w * 3];
+            }
+            ByteBuffer view = p.duplicate();
+            view.clear();
+            for (int y = 0; y < imageHeight; y++) {
+                view.position(((imageY + y) * w + imageX) * 3);
+                view.get(rowScratch, 0, rowBytes);
+                view.position(y * rowBytes);
+                view.put(rowScratch, 0, rowBytes);
+            }
+        }
+    }
+
+    private static boolean same(ByteBuffer a, ByteBuffer b, int o) {
+        return a.get(o) == b.get(o) && a.get(o + 1) == b.get(o + 1) && a.get(o + 2) == b.get(o + 2);
+    }
+
+    /**
+     * 开启后像素, 索引与掩码缓冲区分配在堆外, 下一次 ensureCapacity 时重新分配
+     */
+    void setOffHeap(boolean offHeap) {
+        if (this.offHeap != offHeap) {
+            this.offHeap = offHeap;
+            ownPixels = null;
+            ownDirectPixels = null;
+        }
+    }
+
+    /**
+     * 当前帧像素的堆外副本, 作为差量编码的第一帧
+     */
+    ByteBuffer copyDirectPixels() {
+        ByteBuffer src = directPixels.duplicate();
+        src.clear();
+        src.limit(width * height * 3);
+        ByteBuffer copy = ByteBuffer.allocateDirect(width * height * 3);
+        copy.put(src);
+        return copy;
+    }
+
+    /**
+     * 设置颜色缓存表大小 (2 的 bits 次方), 0 表示不使用缓存
+     */
+    void setColorCacheBits(int bits) {
+        colorCacheBits = bits;
+        colorCaches = bits > 0 ? new ColorIndexCache[]{new ColorIndexCache(bits)} : null;
+    }
+
+    /**
+     * 单帧内按行分带并行转换与映射, null 表示在当前线程上逐行处理
+     */
+    void setBandPool(ForkJoinPool pool) {
+        bandPool = pool;
+    }
+
+    /**
+     * 使用 bandPool 分段并行 LZW 压缩, 输出略大
+     */
+    void setParallelLzw(boolean parallelLzw) {
+        this.parallelLzw = parallelLzw;
+    }
+
+    void setDeferredClear(boolean deferredClear) {
+        this.deferredClear = deferredClear;
+    }
+
+    /**
+     * 使用共享的全局颜色表, null 表示每帧生成局部颜色表
+     */
+    void setGlobalPalette(GlobalPalette palette) {
+        globalPalette = palette;
+        resetColorCaches(true);
+    }
+
+    int getColorCacheHits() {
+        int hits = 0;
+        if (colorCaches != null) {
+            for (ColorIndexCache cache : colorCaches) {
+                hits += cache != null ? cache.getHits() : 0;
+            }
+        }
+        return hits;
+    }
+
+    int getColorCacheLookups() {
+        int lookups = 0;
+        if (colorCaches != null) {
+            for (ColorIndexCache cache : colorCaches) {
+                lookups += cache != null ? cache.getLookups() : 0;
+            }
+        }
+        return lookups;
+    }
+
+    /**
+     * 提取像素值
+     * borrow 为 true 且 source 本身就是紧凑的 BGR 数组时直接使用该数组, 调用方在本帧编码完成前不能修改它
+     */
+    void getImagePixels(PixelSource source, boolean borrow) {
+        int w = source.getWidth();
+        int h = source.getHeight();
+        ensureCapacity(w, h);
+        imageX = 0;
+        imageY = 0;
+        imageWidth = w;
+        imageHeight = h;
+        hasUnchanged = false;
+        if (offHeap) {
+            ByteBuffer direct = borrow ? source.getBgrBuffer() : null;
+            if (direct != null) {
+                directPixels = direct;
+            } else {
+                directPixels = ownDirectPixels;
+                readPixels(source);
+            }
+            return;
+        }
+        byte[] direct = borrow ? source.getBgrArray() : null;
+        if (direct != null) {
+            pixels = direct;
+        } else {
+            pixels = ownPixels;
+            readPixels(source);
+        }
+    }
+
+    /**
+     * 分带并行读取, source 不支持按行读取时退回整帧读取
+     */
+    private void readPixels(PixelSource source) {
+        int h = source.getHeight();
+        int bands = bandCount(source.getWidth(), h);
+        if (bands > 1) {
+            boolean[] supported = new boolean[1];
+            runBands(h, bands, (band, startRow, endRow) -> {
+                boolean read = offHeap ? source.readBgrRows(directPixels, startRow, endRow)
+                        : source.readBgrRows(pixels, startRow, endRow);
+                if (band == 0) {
+                    supported[0] = read;
+                }
+            });
+            if (supported[0]) {
+                return;
+            }
+        }
+        if (offHeap) {
+            source.readBgr(directPixels);
+        } else {
+            source.readBgr(pixels);
+        }
+    }
+
+    /**
+     * 按帧尺寸分配缓冲区, 尺寸不变时直接复用
+     */
+    void ensureCapacity(int w, int h) {
+        if ((offHeap ? ownDirectPixels : ownPixels) == null || w != width || h != height) {
+            width = w;
+            height = h;
+            if (offHeap) {
+                ownDirectPixels = ByteBuffer.allocateDirect(w * h * 3);
+                directIndexed = ByteBuffer.allocateDirect(w * h);
+                directUnchanged = ByteBuffer.allocateDirect(w * h);
+                ownPixels = pixels = indexedPixels = null;
+                unchanged = null;
+            } else {
+                ownPixels = new byte[w * h * 3];
+                indexedPixels = new byte[w * h];
+                unchanged = new boolean[w * h];
+                ownDirectPixels = directPixels = directIndexed = directUnchanged = null;
+            }
+        }
+    }
+
+    /**
+     * 写入图形控制扩展
+     */
+    void writeGraphicCtrlExt(OutputBuffer out) {
+        out.write(0x21);
+        // 扩展块标识，固定值 0x21
+        out.write(0xf9);
+        // 图形控制扩展标签，固定值 0xf9
+        out.write(4);
+        // 块大小，固定值 4
+        out.write(0 |    // 1:3 保留位
+                disposal << 2 |    // 4:6 处置方法
+                0 |    // 7 用户输入标志置 0
+                (transparentIndex >= 0 ? 1 : 0));    // 8 透明色标志
+
+        out.writeShort(delay);
+        // 延迟时间
+        out.write(Math.max(transparentIndex, 0));
+        // 透明色索引值
+        out.write(0);
+        // 块终结器，固定值 0
+    }
+
+    /**
+     * 写入图象标识符
+     */
+    void writeImageDesc(OutputBuffer out) {
+        out.write(0x2c);
+        // 图象标识符开始，固定值为 0x2c
+        out.writeShort(imageX);
+        // x 方向偏移
+        out.writeShort(imageY);
+        // y 方向偏移
+        out.writeShort(imageWidth);
+        // 图像宽度
+        out.writeShort(imageHeight);
+        // 图像高度
+        if (globalPalette != null) {
+            out.write(0);
+            // 使用全局颜色列表
+            return;
+        }
+        out.write((0x80 |
+                (paletteBits - 1)));
+        // 局部颜色列表标志置 1
+        // 局部颜色列表的索引数（2的 paletteBits 次方）
+    }
+
+    /**
+     * 写入调色板
+     */
+    void writePalette(OutputBuffer out) {
+        byte[] tab = globalPalette != null ? globalPalette.colorTab : compactTab;
+        int len = globalPalette != null ? tab.length : paletteSize * 3;
+        out.write(tab, 0, len);
+        out.fill((3 << paletteBits) - len, 0);
+    }
+
+    /**
+     * 对 pixel 进行 LZW 编码, 并写入文件
+     */
+    void writePixels(OutputBuffer out) {
+        LZWEncoder encoder = lzwEncoder;
+        if (encoder == null) {
+            encoder = lzwEncoder = new LZWEncoder(imageWidth, imageHeight, indexedPixels, paletteBits);
+        }
+        if (offHeap) {
+            encoder.reset(imageWidth, imageHeight, directIndexed, paletteBits);
+        } else {
+            encoder.reset(imageWidth, imageHeight, indexedPixels, paletteBits);
+        }
+        encoder.setDeferredClear(deferredClear);
+        int segments = lzwSegmentCount();
+        if (segments > 1) {
+            if (lzwSegments == null || lzwSegments.length != segments - 1) {
+                LZWEncoder[] grown = new LZWEncoder[segments - 1];
+                for (int i = 0; i < grown.length; i++) {
+                    grown[i] = lzwSegments != null && i < lzwSegments.length ? lzwSegments[i]
+                            : new LZWEncoder(imageWidth, imageHeight, indexedPixels, paletteBits);
+                }
+                lzwSegments = grown;
+            }
+            encoder.encode(out, lzwSegments, bandPool);
+        } else {
+            encoder.encode(out);
+        }
+    }
+
+    /**
+     * 分段 LZW 压缩的段数, 未开启或帧太小时为 1
+     */
+    private int lzwSegmentCount() {
+        ForkJoinPool pool = bandPool;
+        if (!parallelLzw || pool == null) {
+            return 1;
+        }
+        long limit = (long) imageWidth * imageHeight / MIN_LZW_SEGMENT_PIXELS;
+        return (int) Math.max(1, Math.min(Math.min(pool.getParallelism(), imageHeight), limit));
+    }
+}
@@ -0,0 +1,111 @@
+package com.yangdai.gifencoderlib;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 帧签名: 全部像素的 64 位哈希, 加上 8x8 网格内各颜色分量之和
+ * 哈希相同视为完全相同的帧; 每个网格的平均色差都不超过阈值时视为近似相同的帧
+ *
+ * @author 30415
+ */
+class FrameSignature {
+
+    private static final int GRID = 8;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private int width;
+    private int height;
+    private long hash;
+    private final int[] cellSums = new int[GRID * GRID * 3];
+    private final int[] cellCounts = new int[GRID * GRID];
+
+    /**
+     * @param bgr 紧凑排列的 BGR 像素
+     */
+    void compute(byte[] bgr, int w, int h) {
+        compute(bgr, null, w, h);
+    }
+
+    /**
+     * 堆外的 BGR 像素, 按绝对位置读取
+     */
+    void compute(ByteBuffer bgr, int w, int h) {
+        compute(null, bgr, w, h);
+    }
+
+    private void compute(byte[] bgr, ByteBuffer buffer, int w, int h) {
+        width = w;
+        height = h;
+        Arrays.fill(cellSums, 0);
+        Arrays.fill(cellCounts, 0);
+        long hs = FNV_OFFSET;
+        for (int cy = 0; cy < GRID; cy++) {
+            int y0 = cy * h / GRID;
+            int y1 = (cy + 1) * h / GRID;
+            for (int cx = 0; cx < GRID; cx++) {
+                int x0 = cx * w / GRID;
+                int x1 = (cx + 1) * w / GRID;
+                int b = 0;
+                int g = 0;
+                int r = 0;
+                for (int y = y0; y < y1; y++) {
+                    for (int i = (y * w + x0) * 3, end = (y * w + x1) * 3; i < end; i += 3) {
+                        int pb;
+                        int pg;
+                        int pr;
+                        if (bgr != null) {
+                            pb = bgr[i] & 0xff;
+                            pg = bgr[i + 1] & 0xff;
+                            pr = bgr[i + 2] & 0xff;
+                        } else {
+                            pb = buffer.get(i) & 0xff;
+                            pg = buffer.get(i + 1) & 0xff;
+                            pr = buffer.get(i + 2) & 0xff;
+                        }
+                        b += pb;
+                        g += pg;
+                        r += pr;
+                        hs = (hs ^ (pr << 16 | pg << 8 | pb)) * FNV_PRIME;
+                    }
+                }
+                int cell = cy * GRID + cx;
+                cellSums[cell * 3] = b;
+                cellSums[cell * 3 + 1] = g;
+                cellSums[cell * 3 + 2] = r;
+                cellCounts[cell] = (x1 - x0) * (y1 - y0);
+            }
+        }
+        hash = hs;
+    }
+
+    void copyFrom(FrameSignature other) {
+        width = other.width;
+        height = other.height;
+        hash = other.hash;
+        System.arraycopy(other.cellSums, 0, cellSums, 0, cellSums.length);
+        System.arraycopy(other.cellCounts, 0, cellCounts, 0, cellCounts.length);
+    }
+
+    /**
+     * @param threshold 每个网格每个分量允许的最大平均差值, 0 表示必须完全相同
+     */
+    boolean matches(FrameSignature other, int threshold) {
+        if (width != other.width || height != other.height) {
+            return false;
+        }
+        if (hash == other.hash) {
+            return true;
+        }
+        if (threshold <= 0) {
+            return false;
+        }
+        for (int i = 0; i < cellSums.length; i++) {
+            if (Math.abs(cellSums[i] - other.cellSums[i]) > threshold * cellCounts[i / 3]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,56 @@
+package com.yangdai.gifencoderlib;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * GIF 输出目标, 以 ByteBuffer 整块写入
+ * 编码器把文件头和每一帧一次性写出, 对 FileChannel 来说每帧只需一次系统调用, 映射文件则直接复制到映射区域
+ *
+ * @author 30415
+ */
+public abstract class GifSink extends OutputStream {
+
+    /**
+     * 已写入的字节数
+     */
+    public abstract long position();
+
+    /**
+     * 写入 src 中 position 到 limit 之间的全部字节
+     */
+    public abstract void write(ByteBuffer src) throws IOException;
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        write(ByteBuffer.wrap(b, off, len));
+    }
+
+    /**
+     * 写入 FileChannel, 小块数据先在堆外缓冲区中合并, 大块直接写入
+     */
+    public static GifSink of(FileChannel channel) {
+        return new ChannelSink(channel);
+    }
+
+    /**
+     * 创建或覆盖文件, 通过 FileChannel 写入
+     */
+    public static GifSink file(String path) throws IOException {
+        return new ChannelSink(FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    /**
+     * 创建或覆盖文件, 分段映射到内存后直接复制写入, 不经过 write 系统调用
+     * 映射区域按需成倍增长, 关闭时截断到实际长度. Windows 上截断可能失败, 应使用 file
+     */
+    public static GifSink mapped(String path) throws IOException {
+        return new MappedFileSink(FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+    }
+}
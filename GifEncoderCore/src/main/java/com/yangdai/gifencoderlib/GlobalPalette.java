@@ -0,0 +1,83 @@
+package com.yangdai.gifencoderlib;
+
+import java.util.List;
+
+/**
+ * 由多帧样本训练出的共享颜色表, 作为全局颜色表写入, 各帧不再写局部颜色表
+ * 训练完成后只读, 可被多个线程上的 FrameEncoder 同时用于映射
+ *
+ * @author 30415
+ */
+class GlobalPalette {
+
+    final Quantizer quantizer;
+    /**
+     * RGB 顺序的颜色表
+     */
+    final byte[] colorTab;
+    /**
+     * 全局颜色表大小为 2 的 colorDepth 次方, 尽量多留一个索引给透明色
+     */
+    final int colorDepth;
+
+    private GlobalPalette(Quantizer quantizer, byte[] colorTab) {
+        this.quantizer = quantizer;
+        this.colorTab = colorTab;
+        colorDepth = FrameEncoder.colorDepth(colorTab.length / 3 + 1);
+    }
+
+    /**
+     * 所有样本合计不超过 256 种颜色时直接以原色作为颜色表, 与局部颜色表的行为一致;
+     * 否则每个样本按步长 samples.size() 交错抽取像素, 合并后的数据量约等于一帧, 再训练一次
+     */
+    static GlobalPalette train(List<? extends PixelSource> samples, int sampleFactor, QuantizerType type) {
+        int n = samples.size();
+        int total = 0;
+        for (PixelSource sample : samples) {
+            total += (sample.getWidth() * sample.getHeight() + n - 1) / n;
+        }
+        byte[] pixels = new byte[total * 3];
+        int k = 0;
+        byte[] bgr = null;
+        ExactPalette exact = new ExactPalette();
+        boolean exactFits = true;
+        for (int s = 0; s < n; s++) {
+            PixelSource sample = samples.get(s);
+            int w = sample.getWidth();
+            int h = sample.getHeight();
+            byte[] sampled = sample.getBgrArray();
+            if (sampled == null) {
+                if (bgr == null || bgr.length < w * h * 3) {
+                    bgr = new byte[w * h * 3];
+                }
+                sample.readBgr(bgr);
+                sampled = bgr;
+            }
+            // 统计样本的全部像素, 而不只是交错抽取的部分
+            exactFits = exactFits && exact.add(sampled, null, w * h * 3);
+            for (int i = s * 3; i < w * h * 3 && k < pixels.length; i += n * 3) {
+                pixels[k++] = sampled[i];
+                pixels[k++] = sampled[i + 1];
+                pixels[k++] = sampled[i + 2];
+            }
+        }
+        Quantizer nq;
+        byte[] map;
+        if (exactFits) {
+            nq = exact;
+            map = exact.colors();
+        } else {
+            nq = type.create();
+            nq.reset(pixels, k, sampleFactor);
+            map = nq.process();
+        }
+        byte[] colorTab = new byte[map.length];
+        // convert map from BGR to RGB
+        for (int i = 0; i < map.length; i += 3) {
+            colorTab[i] = map[i + 2];
+            colorTab[i + 1] = map[i + 1];
+            colorTab[i + 2] = map[i];
+        }
+        return new GlobalPalette(nq, colorTab);
+    }
+}
@@ -0,0 +1,93 @@
+package com.yangdai.gifencoderlib;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * int[] 或 IntBuffer 中的 ARGB 像素, 支持行间隔
+ *
+ * @author 30415
+ */
+final class IntPixelSource implements PixelSource {
+
+    private final int[] array;
+    private final IntBuffer buffer;
+    private final int offset;
+    private final int stride;
+    private final int width;
+    private final int height;
+
+    IntPixelSource(int[] array, IntBuffer buffer, int offset, int stride, int width, int height) {
+        if (stride < width) {
+            throw new IllegalArgumentException("stride < width");
+        }
+        this.array = array;
+        this.buffer = buffer;
+        this.offset = offset;
+        this.stride = stride;
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public void readBgr(byte[] bgr) {
+        readBgrRows(bgr, 0, height);
+    }
+
+    @Override
+    public void readBgr(ByteBuffer bgr) {
+        readBgrRows(bgr, 0, height);
+    }
+
+    @Override
+    public boolean readBgrRows(byte[] bgr, int startRow, int endRow) {
+        int k = startRow * width * 3;
+        for (int y = startRow; y < endRow; y++) {
+            int i = offset + y * stride;
+            int end = i + width;
+            if (array != null) {
+                for (; i < end; i++) {
+                    int p = array[i];
+                    bgr[k++] = (byte) p;
+                    bgr[k++] = (byte) (p >> 8);
+                    bgr[k++] = (byte) (p >> 16);
+                }
+            } else {
+                for (; i < end; i++) {
+                    int p = buffer.get(i);
+                    bgr[k++] = (byte) p;
+                    bgr[k++] = (byte) (p >> 8);
+                    bgr[k++] = (byte) (p >> 16);
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean readBgrRows(ByteBuffer bgr, int startRow, int endRow) {
+        int k = startRow * width * 3;
+        for (int y = startRow; y < endRow; y++) {
+            int i = offset + y * stride;
+            int end = i + width;
+            for (; i < end; i++) {
+                int p = array != null ? array[i] : buffer.get(i);
+                bgr.put(k, (byte) p);
+                bgr.put(k + 1, (byte) (p >> 8));
+                bgr.put(k + 2, (byte) (p >> 16));
+                k += 3;
+            }
+        }
+        return true;
+    }
+}
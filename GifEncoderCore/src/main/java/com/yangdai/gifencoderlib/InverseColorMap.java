@@ -0,0 +1,120 @@
+package com.yangdai.gifencoderlib;
+
+import java.util.Arrays;
+
+/**
+ * 颜色表的逆映射: 每个分量取高 5 位, 共 32768 个单元
+ * 单元第一次被查询时以单元中心搜索最近的颜色并记录, 之后同一单元内的颜色只需一次数组读取
+ * 多个线程同时查询时可能重复计算同一单元, 写入的结果相同, 因此训练完成后可以共享
+ *
+ * @author 30415
+ */
+class InverseColorMap {
+
+    private static final int SHIFT = 3;
+    private static final int CELLS = 1 << 15;
+    private static final int CENTER = 1 << (SHIFT - 1);
+
+    private final short[] cells = new short[CELLS];
+    /**
+     * 按 g 分量排序的颜色表
+     */
+    private final int[] paletteB = new int[256];
+    private final int[] paletteG = new int[256];
+    private final int[] paletteR = new int[256];
+    private final int[] paletteIndex = new int[256];
+    private int count;
+
+    /**
+     * 设置 BGR 顺序的颜色表, 清空所有单元
+     */
+    void set(byte[] bgrMap, int colorCount) {
+        count = colorCount;
+        for (int i = 0; i < colorCount; i++) {
+            int b = bgrMap[i * 3] & 0xff;
+            int g = bgrMap[i * 3 + 1] & 0xff;
+            int r = bgrMap[i * 3 + 2] & 0xff;
+            int j = i;
+            for (; j > 0 && paletteG[j - 1] > g; j--) {
+                paletteB[j] = paletteB[j - 1];
+                paletteG[j] = paletteG[j - 1];
+                paletteR[j] = paletteR[j - 1];
+                paletteIndex[j] = paletteIndex[j - 1];
+            }
+            paletteB[j] = b;
+            paletteG[j] = g;
+            paletteR[j] = r;
+            paletteIndex[j] = i;
+        }
+        Arrays.fill(cells, (short) -1);
+    }
+
+    int map(int b, int g, int r) {
+        int cell = (r >> SHIFT) << 10 | (g >> SHIFT) << 5 | (b >> SHIFT);
+        int index = cells[cell];
+        if (index < 0) {
+            int mask = -1 << SHIFT;
+            index = nearest((b & mask) | CENTER, (g & mask) | CENTER, (r & mask) | CENTER);
+            cells[cell] = (short) index;
+        }
+        return index;
+    }
+
+    /**
+     * 从 g 最接近的颜色向两侧搜索欧氏距离最小的颜色, g 的差值平方不小于当前最小距离时停止
+     */
+    int nearest(int b, int g, int r) {
+        int[] pb = paletteB;
+        int[] pg = paletteG;
+        int[] pr = paletteR;
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (pg[mid] < g) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int i = lo;
+        int j = lo - 1;
+        int best = 0;
+        int bestD = Integer.MAX_VALUE;
+        while (i < count || j >= 0) {
+            if (i < count) {
+                int dg = pg[i] - g;
+                int d = dg * dg;
+                if (d >= bestD) {
+                    i = count;
+                } else {
+                    int db = pb[i] - b;
+                    int dr = pr[i] - r;
+                    d += db * db + dr * dr;
+                    if (d < bestD) {
+                        bestD = d;
+                        best = paletteIndex[i];
+                    }
+                    i++;
+                }
+            }
+            if (j >= 0) {
+                int dg = g - pg[j];
+                int d = dg * dg;
+                if (d >= bestD) {
+                    j = -1;
+                } else {
+                    int db = pb[j] - b;
+                    int dr = pr[j] - r;
+                    d += db * db + dr * dr;
+                    if (d < bestD) {
+                        bestD = d;
+                        best = paletteIndex[j];
+                    }
+                    j--;
+                }
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,572 @@
+package com.yangdai.gifencoderlib;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * LZW（Lempel-Ziv-Welch Encoding）算法又叫“串表压缩算法”就是通过建立一个字符串表，用较短的代码来表示较长的字符串来实现数据的无损压缩。
+ * LZW压缩算法是 Unisys 的专利，有效期到 2003 年，所以现在对它的使用已经没有限制了。
+ * LZW有三个重要对象：数据流（CharStream）、编码流（String Table）和编译表（String Table）。
+ * （1）编码时，数据流是输入对象 （数据序列），编码流就是输出对象（经过压缩运算的编码数据）；
+ * （2）解码时，编码流是输入对象，数据流是输出对象；而编译表是在编码和解码时都需要借助的对象。
+ *
+ * @author 30415
+ */
+public class LZWEncoder {
+
+    private static final int EOF = -1;
+    private static final int BITS = 12;
+    /**
+     * 80% 占用率
+     */
+    private static final int HSIZE = 5003;
+    /**
+     * 延迟清除时表满后每输出这么多编码比较一次压缩率
+     */
+    private static final int CHECK_GAP = 128;
+
+    private int imageWidth;
+    private int imageHeight;
+    private int initCodeSize;
+    private int remainingPixels;
+    private int currentPixel;
+    /**
+     * 编码位数
+     */
+    private int numBits;
+    /**
+     * 用户可设置的最大位数
+     */
+    private final int maxBits = BITS;
+    /**
+     * 最大编码，根据 n_bits 计算得到
+     */
+    private int maxCode;
+    private final int maxMaxCode = 1 << BITS;
+    /**
+     * 动态表大小
+     */
+    private final int hashSize = HSIZE;
+    /**
+     * 第一个未使用的编码
+     */
+    private int freeCode = 0;
+    private int initialNumBits;
+    private int clearCode;
+    private int endOfFileCode;
+    /**
+     * 64 位位缓冲, 攒够 32 位后一次写出 4 个字节
+     */
+    private long bitBuffer = 0;
+    private int bitCount = 0;
+    /**
+     * 打包好的编码流, 最后再切分成 255 字节的数据子块
+     */
+    private byte[] packed = new byte[256];
+    private int packedCount;
+    /**
+     * 分段压缩时本段编码流的有效位数, 以及下一个编码 (下一段的清除码) 使用的位数
+     */
+    private long packedBits;
+    private int nextNumBits;
+
+    private final int[] hashTable = new int[HSIZE];
+    private final int[] codeTable = new int[HSIZE];
+    /**
+     * 延迟清除模式下的编码表: trie[prefix * 256 + pixel] 为对应的编码, 0 表示没有, 不会冲突
+     * trieKeys 记录每个编码所在的位置, 清除时只重置用到的条目
+     */
+    private boolean deferredClear;
+    private short[] trie;
+    private int[] trieKeys;
+
+    private byte[] pixelArray;
+    /**
+     * 堆外的索引数据, 与 pixelArray 只有一个不为 null
+     */
+    private ByteBuffer pixelBuffer;
+    private boolean clearFlag = false;
+
+
+    LZWEncoder(int width, int height, byte[] pixels, int colorDepth) {
+        reset(width, height, pixels, colorDepth);
+    }
+
+    /**
+     * 复用编码表以压缩新的一帧
+     */
+    void reset(int width, int height, byte[] pixels, int colorDepth) {
+        pixelArray = pixels;
+        pixelBuffer = null;
+        reset(width, height, colorDepth);
+    }
+
+    /**
+     * 从 ByteBuffer 按绝对位置读取索引
+     */
+    void reset(int width, int height, ByteBuffer pixels, int colorDepth) {
+        pixelArray = null;
+        pixelBuffer = pixels;
+        reset(width, height, colorDepth);
+    }
+
+    private void reset(int width, int height, int colorDepth) {
+        imageWidth = width;
+        imageHeight = height;
+        initCodeSize = Math.max(2, colorDepth);
+        bitBuffer = 0;
+        bitCount = 0;
+        packedCount = 0;
+        freeCode = 0;
+    }
+
+    /**
+     * 编码表填满后不立即清除, 继续使用已有的编码, 直到压缩率下降时才写出清除码 (GIF 的延迟清除)
+     * 查找使用无冲突的 trie, 每个编码器多占用约 2MB 内存
+     */
+    void setDeferredClear(boolean deferredClear) {
+        this.deferredClear = deferredClear;
+    }
+
+    /**
+     * 用于块压缩的表清除
+     */
+    void clearBlock() {
+        clearHashTable(hashSize);
+        freeCode = clearCode + 2;
+        clearFlag = true;
+
+        outputCode(clearCode);
+    }
+
+    /**
+     * 重置编码表
+     */
+    void clearHashTable(int hSize) {
+        for (int i = 0; i < hSize; ++i) {
+            hashTable[i] = -1;
+        }
+    }
+
+    void compress(int initBits) {
+        compress(initBits, true, true);
+    }
+
+    /**
+     * leadingClear 为 false 时不写出开头的清除码, 由拼接时按上一段结束时的位数写入;
+     * eof 为 false 时不写出结束码, 只把剩余的位写出并记录有效位数
+     */
+    private void compress(int initBits, boolean leadingClear, boolean eof) {
+        if (deferredClear) {
+            compressDeferred(initBits, leadingClear, eof);
+            return;
+        }
+        int currentCode;
+        int i;
+        int pixel;
+        int currentEntry;
+        int displacement;
+        int hashSizeReg;
+        int hashShift;
+
+        // 设置全局变量：g_init_bits - 初始位数
+        initialNumBits = initBits;
+
+        // 设置必要的值
+        clearFlag = false;
+        numBits = initialNumBits;
+        maxCode = getMaxCode(numBits);
+
+        clearCode = 1 << (initBits - 1);
+        endOfFileCode = clearCode + 1;
+        freeCode = clearCode + 2;
+        // 清空数据包
+        packedCount = 0;
+
+        currentEntry = getNextPixel();
+
+        hashShift = 0;
+        for (currentCode = hashSize; currentCode < 65536; currentCode *= 2) {
+            ++hashShift;
+        }
+        // 设置哈希码范围
+        hashShift = 8 - hashShift;
+
+        hashSizeReg = hashSize;
+        // 清空哈希表
+        clearHashTable(hashSizeReg);
+
+        if (leadingClear) {
+            outputCode(clearCode);
+        }
+
+        outer_loop:
+        while ((pixel = getNextPixel()) != EOF) {
+            currentCode = (pixel << maxBits) + currentEntry;
+            i = (pixel << hashShift) ^ currentEntry;
+            // 异或哈希
+
+            if (hashTable[i] == currentCode) {
+                currentEntry = codeTable[i];
+                continue;
+            } else if (hashTable[i] >= 0)
+            // 非空槽
+            {
+                displacement = hashSizeReg - i;
+                // 二次哈希
+                if (i == 0) {
+                    displacement = 1;
+                }
+                do {
+                    if ((i -= displacement) < 0) {
+                        i += hashSizeReg;
+                    }
+
+                    if (hashTable[i] == currentCode) {
+                        currentEntry = codeTable[i];
+                        continue outer_loop;
+                    }
+                } while (hashTable[i] >= 0);
+            }
+            outputCode(currentEntry);
+            currentEntry = pixel;
+            if (freeCode < maxMaxCode) {
+                codeTable[i] = freeCode++;
+                // 编码 -> 哈希表
+                hashTable[i] = currentCode;
+            } else {
+                clearBlock();
+            }
+        }
+        // 输出最后一个编码
+        finish(currentEntry, eof);
+    }
+
+    /**
+     * 使用 trie 查找, 表满后停止添加编码. 每输出 CHECK_GAP 个编码比较一次这段窗口的压缩率 (像素数 / 输出位数)
+     * 与建表期间的压缩率, 已经低于重新建表的预期时才写出清除码
+     */
+    private void compressDeferred(int initBits, boolean leadingClear, boolean eof) {
+        initialNumBits = initBits;
+        clearFlag = false;
+        numBits = initialNumBits;
+        maxCode = getMaxCode(numBits);
+        clearCode = 1 << (initBits - 1);
+        endOfFileCode = clearCode + 1;
+        packedCount = 0;
+        if (trie == null) {
+            trie = new short[maxMaxCode << 8];
+            trieKeys = new int[maxMaxCode];
+        }
+        freeCode = clearCode + 2;
+
+        int currentEntry = getNextPixel();
+        if (leadingClear) {
+            outputCode(clearCode);
+        }
+        int lastEntry;
+        try {
+            lastEntry = compressDeferred(currentEntry);
+        } finally {
+            clearTrie();
+            // 编码器复用时 trie 总是空的
+        }
+        finish(lastEntry, eof);
+    }
+
+    /**
+     * 压缩剩余的像素, 返回最后一个尚未输出的编码
+     */
+    private int compressDeferred(int currentEntry) {
+        short[] table = trie;
+        int[] keys = trieKeys;
+        // 本块与当前窗口开始时的像素数, 编码数与输出位数
+        long inCount = 1;
+        long blockBits = 0;
+        long windowCount = 0;
+        long windowBits = 0;
+        long fillRatio = 0;
+        long codes = 0;
+        long windowCodes = 0;
+        int pixel;
+        while ((pixel = getNextPixel()) != EOF) {
+            inCount++;
+            int key = currentEntry << 8 | pixel;
+            int code = table[key];
+            if (code != 0) {
+                currentEntry = code;
+                continue;
+            }
+            outputCode(currentEntry);
+            codes++;
+            currentEntry = pixel;
+            if (freeCode < maxMaxCode) {
+                table[key] = (short) freeCode;
+                keys[freeCode++] = key;
+                if (freeCode == maxMaxCode) {
+                    // 表刚填满: 以建表期间的压缩率作为重新建表的预期
+                    long bits = packedCount * 8L + bitCount;
+                    fillRatio = ratio(inCount, bits - blockBits);
+                    windowCount = inCount;
+                    windowBits = bits;
+                    windowCodes = codes;
+                }
+            } else if (codes - windowCodes >= CHECK_GAP) {
+                long bits = packedCount * 8L + bitCount;
+                if (ratio(inCount - windowCount, bits - windowBits) < fillRatio) {
+                    // 旧的编码表已经不如重新建表
+                    clearTrie();
+                    freeCode = clearCode + 2;
+                    clearFlag = true;
+                    outputCode(clearCode);
+                    inCount = 0;
+                    blockBits = packedCount * 8L + bitCount;
+                } else {
+                    windowCount = inCount;
+                    windowBits = bits;
+                    windowCodes = codes;
+                }
+            }
+        }
+        return currentEntry;
+    }
+
+    /**
+     * 每位输出对应的像素数, 放大 65536 倍
+     */
+    private static long ratio(long pixels, long bits) {
+        return (pixels << 16) / Math.max(bits, 1);
+    }
+
+    /**
+     * 只重置已分配编码在 trie 中的条目
+     */
+    private void clearTrie() {
+        short[] table = trie;
+        int[] keys = trieKeys;
+        for (int c = clearCode + 2; c < freeCode; c++) {
+            table[keys[c]] = 0;
+        }
+    }
+
+    /**
+     * 输出最后一个编码 (与结束码), 记录补齐字节之前的有效位数后写出剩余的位
+     */
+    private void finish(int currentEntry, boolean eof) {
+        outputCode(currentEntry);
+        if (eof) {
+            outputCode(endOfFileCode);
+        }
+        nextNumBits = numBits;
+        packedBits = packedCount * 8L + bitCount;
+        flushBits();
+    }
+
+    void encode(OutputBuffer os) {
+        os.write(initCodeSize);
+        // 写入 "初始编码大小" 字节
+
+        remainingPixels = imageWidth * imageHeight;
+        // 重置导航变量
+        currentPixel = 0;
+
+        ensurePacked(remainingPixels / 2 + 64);
+        compress(initCodeSize + 1);
+        // 压缩像素数据
+        writeSubBlocks(os);
+        // 切分为数据子块并写入
+
+        os.write(0);
+        // 写入块终结符
+    }
+
+    /**
+     * 分段并行压缩: 按行把索引分成 segments.length + 1 段, 第 0 段由当前编码器在调用线程上压缩,
+     * 其余各段在 pool 上由 segments 中的编码器压缩. 每段从清除码开始, 不依赖之前的编码表,
+     * 最后按位拼接为一个编码流, 再重新切分为数据子块. 每段重新建表, 输出比顺序压缩略大
+     */
+    void encode(OutputBuffer os, LZWEncoder[] segments, ForkJoinPool pool) {
+        int count = segments.length + 1;
+        if (count == 1 || imageHeight < count) {
+            encode(os);
+            return;
+        }
+        os.write(initCodeSize);
+
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[count];
+        for (int i = 1; i < count; i++) {
+            LZWEncoder segment = segments[i - 1];
+            segment.pixelArray = pixelArray;
+            segment.pixelBuffer = pixelBuffer;
+            segment.deferredClear = deferredClear;
+            segment.reset(imageWidth, imageHeight, initCodeSize);
+            int start = segmentStart(i, count);
+            int end = segmentStart(i + 1, count);
+            boolean last = i == count - 1;
+            tasks[i] = pool.submit(() -> segment.compressSegment(start, end - start, last));
+        }
+        try {
+            compressSegment(0, segmentStart(1, count), false);
+        } finally {
+            for (int i = 1; i < count; i++) {
+                tasks[i].quietlyJoin();
+            }
+        }
+        for (int i = 1; i < count; i++) {
+            tasks[i].join();
+            // 重新抛出段内的异常
+        }
+
+        long total = packedBits;
+        for (LZWEncoder segment : segments) {
+            total += BITS + segment.packedBits;
+        }
+        ensurePacked((int) (total / 8) + 8);
+        // 从第 0 段的有效位之后继续拼接
+        packedCount = (int) (packedBits >> 3);
+        bitCount = (int) (packedBits & 7);
+        bitBuffer = packed[packedCount] & ((1 << bitCount) - 1);
+        int clearBits = nextNumBits;
+        for (int i = 1; i < count; i++) {
+            LZWEncoder segment = segments[i - 1];
+            appendBits(clearCode, clearBits);
+            // 最后一段按有效位拼接, 补齐的位留到 flushBits, 结束码之后不会多出字节
+            appendBits(segment.packed, segment.packedBits);
+            clearBits = segment.nextNumBits;
+        }
+        flushBits();
+        writeSubBlocks(os);
+
+        os.write(0);
+    }
+
+    /**
+     * 第 index 段的起始像素, 按行对齐
+     */
+    private int segmentStart(int index, int count) {
+        return (int) ((long) imageHeight * index / count) * imageWidth;
+    }
+
+    private void compressSegment(int start, int length, boolean last) {
+        remainingPixels = length;
+        currentPixel = start;
+        ensurePacked(length / 2 + 64);
+        compress(initCodeSize + 1, start == 0, last);
+    }
+
+    private void appendBits(int bits, int n) {
+        bitBuffer |= (long) bits << bitCount;
+        bitCount += n;
+        while (bitCount >= 8) {
+            packed[packedCount++] = (byte) bitBuffer;
+            bitBuffer >>>= 8;
+            bitCount -= 8;
+        }
+    }
+
+    /**
+     * 追加另一段编码流的前 bits 位, 字节对齐时直接复制
+     */
+    private void appendBits(byte[] src, long bits) {
+        int bytes = (int) (bits >> 3);
+        if (bitCount == 0) {
+            System.arraycopy(src, 0, packed, packedCount, bytes);
+            packedCount += bytes;
+        } else {
+            for (int i = 0; i < bytes; i++) {
+                appendBits(src[i] & 0xff, 8);
+            }
+        }
+        int rest = (int) (bits & 7);
+        if (rest > 0) {
+            appendBits(src[bytes] & ((1 << rest) - 1), rest);
+        }
+    }
+
+    /**
+     * 写出位缓冲中剩余的位, 最后一个字节不足 8 位时高位补 0
+     */
+    private void flushBits() {
+        ensurePacked(packedCount + 8);
+        while (bitCount > 0) {
+            packed[packedCount++] = (byte) bitBuffer;
+            bitBuffer >>>= 8;
+            bitCount -= 8;
+        }
+        bitBuffer = 0;
+        bitCount = 0;
+    }
+
+    /**
+     * 把打包好的编码流按 255 字节一块批量写出, 每块前写入块大小
+     */
+    void writeSubBlocks(OutputBuffer outs) {
+        outs.ensureCapacity(outs.size() + packedCount + packedCount / 255 + 1);
+        for (int off = 0; off < packedCount; off += 255) {
+            int n = Math.min(255, packedCount - off);
+            outs.write(n);
+            outs.write(packed, off, n);
+        }
+    }
+
+    private void ensurePacked(int capacity) {
+        if (capacity > packed.length) {
+            byte[] grown = new byte[Math.max(capacity, packed.length * 2)];
+            System.arraycopy(packed, 0, grown, 0, packedCount);
+            packed = grown;
+        }
+    }
+
+    final int getMaxCode(int nBits) {
+        return (1 << nBits) - 1;
+    }
+
+    private int getNextPixel() {
+        if (remainingPixels == 0) {
+            return EOF;
+        }
+
+        --remainingPixels;
+
+        byte pix = pixelArray != null ? pixelArray[currentPixel++] : pixelBuffer.get(currentPixel++);
+
+        return pix & 0xff;
+    }
+
+    void outputCode(int code) {
+        bitBuffer |= (long) code << bitCount;
+        bitCount += numBits;
+
+        if (bitCount >= 32) {
+            // 一次写出低 32 位
+            if (packedCount + 4 > packed.length) {
+                ensurePacked(packedCount + 4);
+            }
+            int word = (int) bitBuffer;
+            byte[] p = packed;
+            p[packedCount] = (byte) word;
+            p[packedCount + 1] = (byte) (word >> 8);
+            p[packedCount + 2] = (byte) (word >> 16);
+            p[packedCount + 3] = (byte) (word >> 24);
+            packedCount += 4;
+            bitBuffer >>>= 32;
+            bitCount -= 32;
+        }
+
+        // 如果下一个条目对于编码大小来说太大，则增加编码大小（如果可能）
+        if (freeCode > maxCode || clearFlag) {
+            if (clearFlag) {
+                maxCode = getMaxCode(numBits = initialNumBits);
+                clearFlag = false;
+            } else {
+                ++numBits;
+                if (numBits == maxBits) {
+                    maxCode = maxMaxCode;
+                } else {
+                    maxCode = getMaxCode(numBits);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.yangdai.gifencoderlib;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 分段映射文件并直接复制写入, 当前区域写满后在其末尾映射下一段, 段长成倍增长
+ * 映射会把文件扩展到段的末尾, 关闭时截断到实际写入的长度
+ *
+ * @author 30415
+ */
+final class MappedFileSink extends GifSink {
+
+    private static final long INITIAL_REGION_SIZE = 1 << 20;
+    private static final long MAX_REGION_SIZE = 64 << 20;
+
+    private final FileChannel channel;
+    private MappedByteBuffer region;
+    private long regionStart;
+    private long regionSize = INITIAL_REGION_SIZE;
+
+    MappedFileSink(FileChannel channel) throws IOException {
+        this.channel = channel;
+        region = channel.map(FileChannel.MapMode.READ_WRITE, 0, regionSize);
+    }
+
+    @Override
+    public long position() {
+        return regionStart + region.position();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (!region.hasRemaining()) {
+            nextRegion();
+        }
+        region.put((byte) b);
+    }
+
+    @Override
+    public void write(ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            if (!region.hasRemaining()) {
+                nextRegion();
+            }
+            int n = Math.min(src.remaining(), region.remaining());
+            ByteBuffer part = src.duplicate();
+            part.limit(part.position() + n);
+            region.put(part);
+            src.position(src.position() + n);
+        }
+    }
+
+    private void nextRegion() throws IOException {
+        regionStart += region.position();
+        regionSize = Math.min(regionSize * 2, MAX_REGION_SIZE);
+        region = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, regionSize);
+    }
+
+    /**
+     * 数据写入映射区域后即对其他读者可见, 不强制同步到磁盘
+     */
+    @Override
+    public void flush() {
+    }
+
+    /**
+     * 先同步并丢弃当前映射区域再截断. Java 无法主动解除映射, 区域在被回收前仍然有效,
+     * Windows 不允许截断仍有映射的文件, 此时 truncate 可能失败, 文件末尾保留补零的部分,
+     * 需要精确长度的 Windows 程序应使用 GifSink.file
+     */
+    @Override
+    public void close() throws IOException {
+        if (region == null) {
+            return;
+        }
+        long length = position();
+        try {
+            region.force();
+            region = null;
+            channel.truncate(length);
+        } finally {
+            region = null;
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package com.yangdai.gifencoderlib;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 中位切分: 把采样像素统计到 32x32x32 的颜色直方图中, 反复沿最长边在中位数处切分像素最多的盒子,
+ * 直到 256 个盒子, 每个盒子的平均颜色作为一个颜色. 映射使用逆颜色表
+ *
+ * @author 30415
+ */
+class MedianCutQuantizer implements Quantizer {
+
+    private static final int SHIFT = 3;
+    private static final int SIDE = 1 << (8 - SHIFT);
+    private static final int LOW_MASK = (1 << SHIFT) - 1;
+    private static final int BINS = SIDE * SIDE * SIDE;
+    private static final int MAX_COLORS = 256;
+
+    /**
+     * 每个区间的像素数, 以及各分量低 3 位之和 (高 5 位由区间本身确定, 用 int 不会溢出)
+     */
+    private final int[] counts = new int[BINS];
+    private final int[] lowB = new int[BINS];
+    private final int[] lowG = new int[BINS];
+    private final int[] lowR = new int[BINS];
+    /**
+     * 每个盒子在直方图坐标下的范围: rMin, rMax, gMin, gMax, bMin, bMax
+     */
+    private final int[] boxes = new int[MAX_COLORS * 6];
+    private final int[] boxCounts = new int[MAX_COLORS];
+    private final int[] projection = new int[SIDE];
+    private final InverseColorMap inverse = new InverseColorMap();
+    private byte[] input;
+    private ByteBuffer inputBuffer;
+    private int length;
+    private int sampleFactor;
+
+    @Override
+    public void reset(byte[] input, int length, int sample) {
+        this.input = input;
+        this.inputBuffer = null;
+        this.length = length;
+        this.sampleFactor = Math.max(sample, 1);
+    }
+
+    @Override
+    public void reset(ByteBuffer input, int length, int sample) {
+        this.input = null;
+        this.inputBuffer = input;
+        this.length = length;
+        this.sampleFactor = Math.max(sample, 1);
+    }
+
+    @Override
+    public byte[] process() {
+        buildHistogram();
+        int n = splitBoxes();
+        byte[] map = new byte[n * 3];
+        for (int k = 0; k < n; k++) {
+            averageColor(k, map);
+        }
+        inverse.set(map, n);
+        return map;
+    }
+
+    @Override
+    public int map(int b, int g, int r) {
+        return inverse.map(b, g, r);
+    }
+
+    private void buildHistogram() {
+        Arrays.fill(counts, 0);
+        Arrays.fill(lowB, 0);
+        Arrays.fill(lowG, 0);
+        Arrays.fill(lowR, 0);
+        int step = sampleFactor * 3;
+        byte[] p = input;
+        ByteBuffer buffer = inputBuffer;
+        for (int i = 0; i + 2 < length; i += step) {
+            int b;
+            int g;
+            int r;
+            if (p != null) {
+                b = p[i] & 0xff;
+                g = p[i + 1] & 0xff;
+                r = p[i + 2] & 0xff;
+            } else {
+                b = buffer.get(i) & 0xff;
+                g = buffer.get(i + 1) & 0xff;
+                r = buffer.get(i + 2) & 0xff;
+            }
+            int bin = bin(r >> SHIFT, g >> SHIFT, b >> SHIFT);
+            counts[bin]++;
+            lowB[bin] += b & LOW_MASK;
+            lowG[bin] += g & LOW_MASK;
+            lowR[bin] += r & LOW_MASK;
+        }
+    }
+
+    /**
+     * 从覆盖整个直方图的盒子开始切分, 返回盒子数
+     */
+    private int splitBoxes() {
+        int[] box = boxes;
+        box[0] = 0;
+        box[1] = SIDE - 1;
+        box[2] = 0;
+        box[3] = SIDE - 1;
+        box[4] = 0;
+        box[5] = SIDE - 1;
+        shrink(0);
+        int n = 1;
+        while (n < MAX_COLORS) {
+            // 像素数乘以最长边最大的盒子优先切分, 只含一个区间的盒子不再切分
+            int best = -1;
+            long bestScore = 0;
+            for (int k = 0; k < n; k++) {
+                long score = (long) boxCounts[k] * longestSide(k);
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = k;
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            split(best, n++);
+        }
+        return n;
+    }
+
+    private int longestSide(int k) {
+        int o = k * 6;
+        return Math.max(boxes[o + 1] - boxes[o], Math.max(boxes[o + 3] - boxes[o + 2], boxes[o + 5] - boxes[o + 4]));
+    }
+
+    /**
+     * 沿最长边在像素数的中位数处把盒子 k 切成两半, 后一半作为盒子 n
+     */
+    private void split(int k, int n) {
+        int[] box = boxes;
+        int o = k * 6;
+        int rLen = box[o + 1] - box[o];
+        int gLen = box[o + 3] - box[o + 2];
+        int bLen = box[o + 5] - box[o + 4];
+        int axis = gLen >= rLen && gLen >= bLen ? 2 : rLen >= bLen ? 0 : 4;
+        int[] proj = projection;
+        Arrays.fill(proj, 0);
+        for (int r = box[o]; r <= box[o + 1]; r++) {
+            for (int g = box[o + 2]; g <= box[o + 3]; g++) {
+                for (int b = box[o + 4]; b <= box[o + 5]; b++) {
+                    int c = counts[bin(r, g, b)];
+                    if (c != 0) {
+                        proj[axis == 0 ? r : axis == 2 ? g : b] += c;
+                    }
+                }
+            }
+        }
+        int min = box[o + axis];
+        int max = box[o + axis + 1];
+        int half = boxCounts[k] / 2;
+        int cut = min;
+        int sum = proj[min];
+        while (cut < max - 1 && sum < half) {
+            sum += proj[++cut];
+        }
+        System.arraycopy(box, o, box, n * 6, 6);
+        box[o + axis + 1] = cut;
+        box[n * 6 + axis] = cut + 1;
+        shrink(k);
+        shrink(n);
+    }
+
+    /**
+     * 把盒子收缩到其中非空区间的外接范围, 同时统计像素数
+     */
+    private void shrink(int k) {
+        int[] box = boxes;
+        int o = k * 6;
+        int rMin = SIDE;
+        int rMax = -1;
+        int gMin = SIDE;
+        int gMax = -1;
+        int bMin = SIDE;
+        int bMax = -1;
+        int total = 0;
+        for (int r = box[o]; r <= box[o + 1]; r++) {
+            for (int g = box[o + 2]; g <= box[o + 3]; g++) {
+                for (int b = box[o + 4]; b <= box[o + 5]; b++) {
+                    int c = counts[bin(r, g, b)];
+                    if (c == 0) {
+                        continue;
+                    }
+                    total += c;
+                    rMin = Math.min(rMin, r);
+                    rMax = Math.max(rMax, r);
+                    gMin = Math.min(gMin, g);
+                    gMax = Math.max(gMax, g);
+                    bMin = Math.min(bMin, b);
+                    bMax = Math.max(bMax, b);
+                }
+            }
+        }
+        boxCounts[k] = total;
+        if (total == 0) {
+            // 没有任何像素 (空图像), 保留一个黑色
+            box[o] = box[o + 1] = box[o + 2] = box[o + 3] = box[o + 4] = box[o + 5] = 0;
+            return;
+        }
+        box[o] = rMin;
+        box[o + 1] = rMax;
+        box[o + 2] = gMin;
+        box[o + 3] = gMax;
+        box[o + 4] = bMin;
+        box[o + 5] = bMax;
+    }
+
+    /**
+     * 盒子 k 内所有像素的平均颜色, 按 BGR 写入 map
+     */
+    private void averageColor(int k, byte[] map) {
+        int[] box = boxes;
+        int o = k * 6;
+        long sumB = 0;
+        long sumG = 0;
+        long sumR = 0;
+        long total = 0;
+        for (int r = box[o]; r <= box[o + 1]; r++) {
+            for (int g = box[o + 2]; g <= box[o + 3]; g++) {
+                for (int b = box[o + 4]; b <= box[o + 5]; b++) {
+                    int bin = bin(r, g, b);
+                    int c = counts[bin];
+                    if (c == 0) {
+                        continue;
+                    }
+                    total += c;
+                    sumB += (long) c * (b << SHIFT) + lowB[bin];
+                    sumG += (long) c * (g << SHIFT) + lowG[bin];
+                    sumR += (long) c * (r << SHIFT) + lowR[bin];
+                }
+            }
+        }
+        if (total > 0) {
+            map[k * 3] = (byte) ((sumB + total / 2) / total);
+            map[k * 3 + 1] = (byte) ((sumG + total / 2) / total);
+            map[k * 3 + 2] = (byte) ((sumR + total / 2) / total);
+        }
+    }
+
+    private static int bin(int r, int g, int b) {
+        return (r << 10) | (g << 5) | b;
+    }
+}
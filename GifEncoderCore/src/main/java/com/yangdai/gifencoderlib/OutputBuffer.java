@@ -0,0 +1,78 @@
+package com.yangdai.gifencoderlib;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * 可复用的字节缓冲区, 头部与每帧数据先写入这里, 再一次性批量写入目标流
+ *
+ * @author 30415
+ */
+class OutputBuffer extends OutputStream {
+
+    private byte[] buf;
+    private int count;
+
+    OutputBuffer(int initialCapacity) {
+        buf = new byte[Math.max(initialCapacity, 16)];
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(count + 1);
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(count + len);
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+    }
+
+    /**
+     * 小端序写入 16 位整数
+     */
+    void writeShort(int value) {
+        ensureCapacity(count + 2);
+        buf[count++] = (byte) value;
+        buf[count++] = (byte) (value >> 8);
+    }
+
+    /**
+     * 写入 n 个相同的字节
+     */
+    void fill(int n, int value) {
+        ensureCapacity(count + n);
+        Arrays.fill(buf, count, count + n, (byte) value);
+        count += n;
+    }
+
+    /**
+     * 修改已写入的字节
+     */
+    void set(int position, int value) {
+        buf[position] = (byte) value;
+    }
+
+    int size() {
+        return count;
+    }
+
+    void reset() {
+        count = 0;
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, count);
+    }
+
+    void ensureCapacity(int capacity) {
+        if (capacity > buf.length) {
+            byte[] grown = new byte[Math.max(capacity, buf.length * 2)];
+            System.arraycopy(buf, 0, grown, 0, count);
+            buf = grown;
+        }
+    }
+}
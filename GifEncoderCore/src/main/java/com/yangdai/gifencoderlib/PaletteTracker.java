@@ -0,0 +1,144 @@
+package com.yangdai.gifencoderlib;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 判断能否沿用上一次训练出的颜色表: 先比较颜色直方图识别场景切换, 沿用后再检查映射误差
+ * 参考帧是最近一次重新训练的帧, 不随沿用的帧漂移
+ *
+ * @author 30415
+ */
+class PaletteTracker {
+
+    /**
+     * 每个颜色分量取高 3 位, 共 512 个区间
+     */
+    private static final int SHIFT = 5;
+    private static final int BINS = 1 << 9;
+    /**
+     * 统计直方图与映射误差时最多采样的像素数
+     */
+    private static final int MAX_SAMPLES = 32 * 1024;
+    /**
+     * 沿用颜色表时允许的映射误差 (每像素 RGB 距离的平方): 参考帧误差的倍数, 再加上一个下限
+     */
+    private static final double ERROR_GROWTH = 1.25;
+    private static final double ERROR_FLOOR = 16;
+
+    private final float sceneThreshold;
+    private final int[] histogram = new int[BINS];
+    private final int[] reference = new int[BINS];
+    private int samples;
+    private int referenceSamples;
+    /**
+     * 参考帧的映射误差, 小于 0 表示还没有参考帧
+     */
+    private double referenceError = -1;
+
+    /**
+     * @param sceneThreshold 归一化直方图的 L1 距离 (0..2), 超过时视为场景切换
+     */
+    PaletteTracker(float sceneThreshold) {
+        this.sceneThreshold = sceneThreshold;
+    }
+
+    /**
+     * 统计当前帧的直方图, 每帧都要调用, 重新训练时它将成为新的参考帧
+     * bgr 与 buffer 只有一个不为 null
+     */
+    void updateHistogram(byte[] bgr, ByteBuffer buffer, int pixelCount) {
+        int[] h = histogram;
+        Arrays.fill(h, 0);
+        int step = sampleStep(pixelCount);
+        int n = 0;
+        for (int i = 0, k = 0; i < pixelCount; i += step, k += step * 3) {
+            int b;
+            int g;
+            int r;
+            if (bgr != null) {
+                b = bgr[k] & 0xff;
+                g = bgr[k + 1] & 0xff;
+                r = bgr[k + 2] & 0xff;
+            } else {
+                b = buffer.get(k) & 0xff;
+                g = buffer.get(k + 1) & 0xff;
+                r = buffer.get(k + 2) & 0xff;
+            }
+            h[(r >> SHIFT) << 6 | (g >> SHIFT) << 3 | (b >> SHIFT)]++;
+            n++;
+        }
+        samples = n;
+    }
+
+    /**
+     * 当前帧的直方图与参考帧足够接近时返回 true
+     */
+    boolean matchesReference() {
+        int n = samples;
+        if (referenceError < 0 || referenceSamples == 0 || n == 0) {
+            return false;
+        }
+        int[] h = histogram;
+        long distance = 0;
+        for (int i = 0; i < BINS; i++) {
+            distance += Math.abs((long) h[i] * referenceSamples - (long) reference[i] * n);
+        }
+        return distance <= (double) sceneThreshold * n * referenceSamples;
+    }
+
+    /**
+     * 沿用颜色表后的映射误差是否仍可接受
+     */
+    boolean accepts(double error) {
+        return error <= referenceError * ERROR_GROWTH + ERROR_FLOOR;
+    }
+
+    /**
+     * 重新训练后, 以当前帧作为新的参考帧
+     */
+    void setReference(double error) {
+        System.arraycopy(histogram, 0, reference, 0, BINS);
+        referenceSamples = samples;
+        referenceError = error;
+    }
+
+    /**
+     * 采样像素与其映射颜色之间 RGB 距离平方的平均值, 编码为透明色的像素不计入
+     * colorTab 为 RGB 顺序
+     */
+    static double mappingError(byte[] bgr, ByteBuffer buffer, byte[] indexed, ByteBuffer indexedBuffer,
+                               byte[] colorTab, int transparentIndex, int pixelCount) {
+        int step = sampleStep(pixelCount);
+        long sum = 0;
+        int n = 0;
+        for (int i = 0, k = 0; i < pixelCount; i += step, k += step * 3) {
+            int index = (indexed != null ? indexed[i] : indexedBuffer.get(i)) & 0xff;
+            if (index == transparentIndex) {
+                continue;
+            }
+            int b;
+            int g;
+            int r;
+            if (bgr != null) {
+                b = bgr[k] & 0xff;
+                g = bgr[k + 1] & 0xff;
+                r = bgr[k + 2] & 0xff;
+            } else {
+                b = buffer.get(k) & 0xff;
+                g = buffer.get(k + 1) & 0xff;
+                r = buffer.get(k + 2) & 0xff;
+            }
+            int dr = r - (colorTab[index * 3] & 0xff);
+            int dg = g - (colorTab[index * 3 + 1] & 0xff);
+            int db = b - (colorTab[index * 3 + 2] & 0xff);
+            sum += dr * dr + dg * dg + db * db;
+            n++;
+        }
+        return n > 0 ? (double) sum / n : 0;
+    }
+
+    private static int sampleStep(int pixelCount) {
+        return Math.max(1, pixelCount / MAX_SAMPLES);
+    }
+}
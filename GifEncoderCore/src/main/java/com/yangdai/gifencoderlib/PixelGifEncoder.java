@@ -0,0 +1,631 @@
+package com.yangdai.gifencoderlib;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 与平台无关的 GIF 编码器, 像素通过 PixelSource 读取
+ * Android 上使用其子类 GifEncoder 直接编码 Bitmap
+ *
+ * @author 30415
+ */
+public class PixelGifEncoder {
+
+    private static final int DEFAULT_COLOR_CACHE_BITS = 12;
+    private static final int MAX_COLOR_CACHE_BITS = 20;
+    /**
+     * 延迟清除时每个 LZW 编码器的 trie 与编码位置表
+     */
+    private static final long LZW_TRIE_BYTES = (4096L << 8) * 2 + 4096L * 4;
+
+    private int width;
+    private int height;
+    /**
+     * 单位百分之一秒
+     */
+    private int delay = 0;
+    private OutputStream out;
+    /**
+     * 文件头, 逻辑屏幕标识符与全局颜色表先写入此缓冲区, 再一次写入 out
+     */
+    private final OutputBuffer headerBuffer = new OutputBuffer(1024);
+    /**
+     * 顺序编码时使用的帧, 首帧的颜色表同时作为全局颜色表
+     */
+    private FrameEncoder frame;
+
+    /**
+     * 并行编码使用的线程池, 为 null 时在调用线程上顺序编码
+     */
+    private Executor executor;
+    /**
+     * 并行编码时同时处理的最大帧数
+     */
+    private int maxPendingFrames = Runtime.getRuntime().availableProcessors() * 2;
+    /**
+     * 按帧顺序输出图像块的写线程
+     */
+    private ExecutorService writer;
+    private Semaphore pendingFrames;
+    private final Queue<FrameEncoder> idleFrames = new ConcurrentLinkedQueue<>();
+    private volatile Throwable failure;
+    /**
+     * 颜色缓存表大小为 2 的 colorCacheBits 次方, 0 表示不使用缓存
+     */
+    private int colorCacheBits = DEFAULT_COLOR_CACHE_BITS;
+    /**
+     * 颜色量化的采样因子, 0 表示自适应
+     */
+    private int sampleFactor = Quality.BALANCED.sampleFactor;
+    private long frameBudgetNanos;
+    /**
+     * 沿用颜色表的直方图距离阈值, 0 表示不沿用
+     */
+    private float sceneThreshold;
+    private QuantizerType quantizerType = QuantizerType.NEUQUANT;
+    private Dither dither = Dither.NONE;
+    /**
+     * 单帧内分带并行使用的线程池, 为 null 时每帧在一个线程上处理
+     */
+    private ForkJoinPool bandPool;
+    private boolean parallelLzw;
+    private boolean deferredClear;
+    private final EncoderStats stats = new EncoderStats();
+    private GlobalPalette globalPalette;
+    /**
+     * 差量编码时保存上一帧的原始像素
+     */
+    private boolean deltaEncoding;
+    private byte[] previousPixels;
+    private ByteBuffer previousBuffer;
+    /**
+     * 帧缓冲区分配在堆外
+     */
+    private boolean offHeap;
+    /**
+     * 重复帧阈值, -1 表示不检测重复帧
+     */
+    private int duplicateThreshold = -1;
+    /**
+     * 最后一个保留下来的帧的签名
+     */
+    private FrameSignature lastSignature;
+    /**
+     * 已编码但尚未写出的帧, 后续的重复帧会延长它的延迟时间
+     * 顺序编码时只在调用线程访问, 并行编码时只在写线程访问
+     */
+    private FrameEncoder heldFrame;
+    /**
+     * heldFrame 合并重复帧后的延迟时间, 只在调用线程访问
+     */
+    private int heldDelay;
+
+
+    public void init(PixelSource firstFrame) {
+        width = firstFrame.getWidth();
+        height = firstFrame.getHeight();
+        frame = newFrame();
+        frame.getImagePixels(firstFrame, true);
+        previousPixels = null;
+        previousBuffer = null;
+        if (deltaEncoding && offHeap) {
+            previousBuffer = frame.copyDirectPixels();
+        } else if (deltaEncoding) {
+            previousPixels = frame.pixels.clone();
+        }
+        lastSignature = null;
+        if (duplicateThreshold >= 0) {
+            frame.computeSignature();
+            lastSignature = new FrameSignature();
+            lastSignature.copyFrom(frame.signature);
+        }
+        frame.analyzePixels();
+    }
+
+    public boolean start(OutputStream os) {
+        if (os == null) {
+            return false;
+        }
+        out = os;
+        failure = null;
+        try {
+            headerBuffer.reset();
+            writeHeader();
+            writeLSD();
+            frame.writePalette(headerBuffer);
+            headerBuffer.writeTo(out);
+
+            frame.delay = delay;
+            frame.compress();
+            heldFrame = frame;
+            heldDelay = delay;
+            stats.reset();
+            pendingFrames = null;
+            if (executor != null) {
+                // 多出的一个许可留给暂存的帧
+                pendingFrames = new Semaphore(maxPendingFrames + 1);
+                pendingFrames.acquireUninterruptibly();
+                writer = Executors.newSingleThreadExecutor();
+            }
+            return true;
+        } catch (IOException e) {
+            failure = e;
+        }
+        // 失败时不会再调用 finish, 在这里关闭输出
+        try {
+            out.close();
+        } catch (IOException ignored) {
+            // 保留最先的异常
+        }
+        out = null;
+        return false;
+    }
+
+    /**
+     * 通过 FileChannel 写入文件, 需要映射文件时使用 start(GifSink.mapped(file))
+     */
+    public boolean start(String file) {
+        try {
+            return start(GifSink.file(file));
+        } catch (IOException e) {
+            failure = e;
+        }
+        return false;
+    }
+
+    /**
+     * 顺序编码且未开启差量编码时, 紧凑的 BGR 数组不复制, 直接在调用线程上编码
+     */
+    public boolean addFrame(PixelSource source) {
+        if (writer != null) {
+            return submitFrame(source);
+        }
+        try {
+            frame.getImagePixels(source, previousPixels == null && previousBuffer == null);
+            if (isDuplicate(frame)) {
+                extendHeldFrame(delay);
+                return true;
+            }
+            writeHeldFrame();
+            frame.delay = delay;
+            diff(frame);
+            frame.encode();
+            heldFrame = frame;
+            return true;
+        } catch (IOException e) {
+            failure = e;
+        }
+        return false;
+    }
+
+    /**
+     * 完成 GIF 文件生成
+     */
+    public boolean finish() {
+        if (out == null) {
+            // 未调用 start 或 start 失败
+            return false;
+        }
+        boolean success = awaitWriter();
+        try {
+            if (success) {
+                writeHeldFrame();
+                out.write(0x3b);
+                // gif trailer
+                out.flush();
+            }
+        } catch (IOException e) {
+            failure = e;
+            success = false;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            if (success) {
+                failure = e;
+            }
+            success = false;
+        }
+        out = null;
+        frame = null;
+        heldFrame = null;
+        previousPixels = null;
+        previousBuffer = null;
+        lastSignature = null;
+        idleFrames.clear();
+        return success;
+    }
+
+    /**
+     * start, addFrame 或 finish 返回 false 的原因, 成功时为 null
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * 设置帧间隔
+     */
+    public void setFrameRate(float fps) {
+        if (fps != 0f) {
+            delay = Math.round(100f / fps);
+        }
+    }
+
+    /**
+     * 开启并行编码: 多帧的颜色量化和 LZW 压缩同时在 executor 上执行, 写线程按顺序输出
+     * 需在 start 之前调用, 传入 null 则恢复顺序编码
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * 单帧内并行: 像素转换与颜色映射按行分带, 在 pool 上同时执行, 输出与逐行处理完全相同
+     * 适合 1080p 等大尺寸帧或只能顺序编码时 (如全局颜色表), 小帧仍在一个线程上处理. 需在 init 之前调用
+     */
+    public void setIntraFrameParallelism(ForkJoinPool pool) {
+        this.bandPool = pool;
+    }
+
+    /**
+     * 大尺寸帧的 LZW 压缩按行分段, 每段从清除码开始在 setIntraFrameParallelism 的线程池上同时压缩,
+     * 再按位拼接为一个图像数据流. 每段重新建立编码表, 输出略大. 需在 init 之前调用
+     */
+    public void setParallelLzw(boolean parallelLzw) {
+        this.parallelLzw = parallelLzw;
+    }
+
+    /**
+     * LZW 编码表填满后不立即清除, 继续使用已有的编码, 压缩率下降时才重新建表, 查找使用无冲突的 trie.
+     * 大尺寸的渐变或抖动画面输出明显更小, 压缩也更快; 每个编码器多占用约 2MB 内存. 需在 init 之前调用
+     */
+    public void setDeferredClear(boolean deferredClear) {
+        this.deferredClear = deferredClear;
+    }
+
+    /**
+     * 设置并行编码时同时处理的最大帧数, 超出时 addFrame 阻塞等待
+     */
+    public void setMaxPendingFrames(int maxPendingFrames) {
+        if (maxPendingFrames > 0) {
+            this.maxPendingFrames = maxPendingFrames;
+        }
+    }
+
+    /**
+     * 设置像素映射时颜色缓存的大小 (2 的 bits 次方个条目), 0 表示关闭
+     * 需在 init 之前调用
+     */
+    public void setColorCacheBits(int bits) {
+        if (bits >= 0 && bits <= MAX_COLOR_CACHE_BITS) {
+            colorCacheBits = bits;
+        }
+    }
+
+    /**
+     * 选择颜色量化的质量预设, 默认 BALANCED. 需在 init 与 setGlobalPaletteSources 之前调用
+     */
+    public void setQuality(Quality quality) {
+        if (quality != null) {
+            sampleFactor = quality.sampleFactor;
+        }
+    }
+
+    /**
+     * 选择颜色量化算法, 默认 NEUQUANT. 颜色不超过 256 种的帧总是直接使用原色
+     * 需在 init 与 setGlobalPaletteSources 之前调用
+     */
+    public void setQuantizer(QuantizerType type) {
+        if (type != null) {
+            quantizerType = type;
+        }
+    }
+
+    /**
+     * 选择映射到颜色表之前的抖动方式, 默认 NONE. 需在 init 之前调用
+     */
+    public void setDither(Dither dither) {
+        if (dither != null) {
+            this.dither = dither;
+        }
+    }
+
+    /**
+     * 直接设置采样因子, 1 最准确, 30 最快
+     */
+    public void setSampleFactor(int factor) {
+        if (factor >= FrameEncoder.MIN_SAMPLE_FACTOR && factor <= FrameEncoder.MAX_SAMPLE_FACTOR) {
+            sampleFactor = factor;
+        }
+    }
+
+    /**
+     * 按帧的像素数自动选择采样因子, 大帧最多学习 64K 个像素
+     * frameBudgetMillis 大于 0 时再根据之前几帧的实际耗时调整, 使每帧的编码时间尽量不超过预算
+     */
+    public void setAdaptiveQuality(long frameBudgetMillis) {
+        sampleFactor = 0;
+        frameBudgetNanos = Math.max(frameBudgetMillis, 0) * 1000 * 1000;
+    }
+
+    /**
+     * 颜色分布与上次训练的帧相近的帧直接沿用其颜色表, 不再训练; 场景切换或映射误差明显变大时重新训练
+     * sceneThreshold 为 512 区间颜色直方图的归一化 L1 距离 (0..2), 建议 0.1 ~ 0.3, 0 表示每帧都训练 (默认)
+     * 并行编码时每个工作帧各自沿用自己上次训练的颜色表. 需在 init 之前调用
+     */
+    public void setPaletteReuse(float sceneThreshold) {
+        this.sceneThreshold = Math.max(sceneThreshold, 0f);
+    }
+
+    /**
+     * 用多帧样本训练一个共享颜色表, 只作为全局颜色表写入一次, 各帧不再写局部颜色表,
+     * 也不再逐帧训练, 只做映射和 LZW 压缩. 样本应覆盖整个片段, 需在 init 之前调用
+     * 传入 null 或空列表则恢复为每帧生成局部颜色表
+     */
+    public void setGlobalPaletteSources(List<? extends PixelSource> samples) {
+        if (samples == null || samples.isEmpty()) {
+            globalPalette = null;
+        } else {
+            int total = 0;
+            for (PixelSource sample : samples) {
+                total += sample.getWidth() * sample.getHeight() / samples.size();
+            }
+            int factor = sampleFactor > 0 ? sampleFactor : FrameEncoder.adaptiveSampleFactor(total, 0, 0, 0);
+            globalPalette = GlobalPalette.train(samples, factor, quantizerType);
+        }
+    }
+
+    /**
+     * 差量编码: 每帧只编码与上一帧相比发生变化的矩形区域, 区域内未变化的像素使用透明色,
+     * 并以"不处置"方式叠加在上一帧之上. 适合屏幕录制等大部分画面静止的片段, 需在 init 之前调用
+     */
+    public void setDeltaEncoding(boolean deltaEncoding) {
+        this.deltaEncoding = deltaEncoding;
+    }
+
+    /**
+     * 丢弃与上一帧相同或近似相同的帧, 并把它的延迟时间合并到上一帧
+     * threshold 为 8x8 网格内每个颜色分量允许的最大平均差值, 0 表示只丢弃完全相同的帧,
+     * -1 表示不检测 (默认). 需在 init 之前调用
+     */
+    public void setDuplicateThreshold(int threshold) {
+        duplicateThreshold = Math.max(threshold, -1);
+    }
+
+    /**
+     * 帧的像素, 索引与差量编码的上一帧都分配在堆外 (direct ByteBuffer), 不占用 Java 堆
+     * 适合内存紧张时编码大尺寸帧, 像素可由 PixelSource.ofBytes(ByteBuffer, ...) 直接提供. 需在 init 之前调用
+     */
+    public void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * 按当前设置估算编码 width x height 的帧时编码器自身占用的缓冲区字节数: 每帧的像素, 索引与掩码,
+     * 差量编码的上一帧, 以及延迟清除的 LZW 编码表. 不含调用方持有的 Bitmap 或像素数组
+     */
+    public long estimateBufferBytes(int width, int height) {
+        long pixels = (long) width * height;
+        long perFrame = pixels * 5 + (deferredClear ? LZW_TRIE_BYTES : 0);
+        int frames = executor != null ? maxPendingFrames + 1 : 1;
+        return perFrame * frames + (deltaEncoding ? pixels * 3 : 0);
+    }
+
+    /**
+     * 编码统计, 包括每帧的颜色缓存命中率
+     */
+    public EncoderStats getStats() {
+        return stats;
+    }
+
+    private FrameEncoder newFrame() {
+        FrameEncoder f = new FrameEncoder();
+        f.setColorCacheBits(colorCacheBits);
+        f.setGlobalPalette(globalPalette);
+        f.disposal = deltaEncoding ? 1 : 0;
+        f.setOffHeap(offHeap);
+        f.setSampleFactor(sampleFactor, frameBudgetNanos);
+        f.setPaletteReuse(sceneThreshold);
+        f.setQuantizerType(quantizerType);
+        f.setDither(dither);
+        f.setBandPool(bandPool);
+        f.setParallelLzw(parallelLzw);
+        f.setDeferredClear(deferredClear);
+        return f;
+    }
+
+    /**
+     * 差量编码时与上一帧比较
+     */
+    private void diff(FrameEncoder f) {
+        if (previousBuffer != null) {
+            f.diff(previousBuffer);
+        } else if (previousPixels != null) {
+            f.diff(previousPixels);
+        }
+    }
+
+    /**
+     * 在调用线程上提取像素, 量化和压缩交给 executor, 结果由写线程按提交顺序写出
+     */
+    private boolean submitFrame(PixelSource source) {
+        if (failure != null) {
+            return false;
+        }
+        try {
+            pendingFrames.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = e;
+            return false;
+        }
+        FrameEncoder pending = idleFrames.poll();
+        if (pending == null) {
+            pending = newFrame();
+        }
+        // 编码在其他线程上进行, 调用方可能在返回后修改数组, 必须复制
+        pending.getImagePixels(source, false);
+        if (isDuplicate(pending)) {
+            recycle(pending);
+            final int d = delay;
+            writer.execute(() -> extendHeldFrame(d));
+            return true;
+        }
+        pending.delay = delay;
+        diff(pending);
+
+        final FrameEncoder f = pending;
+        FutureTask<Void> task = new FutureTask<>(() -> {
+            f.encode();
+            return null;
+        });
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            recycle(f);
+            failure = e;
+            return false;
+        }
+        writer.execute(() -> writeEncoded(task, f));
+        return true;
+    }
+
+    /**
+     * 在写线程上执行: 等待 f 编码完成, 写出之前暂存的帧, 再暂存 f
+     */
+    private void writeEncoded(FutureTask<Void> task, FrameEncoder f) {
+        try {
+            task.get();
+            if (failure == null) {
+                writeHeldFrame();
+                heldFrame = f;
+                return;
+            }
+        } catch (ExecutionException e) {
+            failure = e.getCause();
+        } catch (InterruptedException | IOException e) {
+            failure = e;
+        }
+        recycle(f);
+    }
+
+    /**
+     * 在调用线程上判断 f 是否与最后保留的帧重复, 不重复时更新签名
+     */
+    private boolean isDuplicate(FrameEncoder f) {
+        if (lastSignature == null) {
+            heldDelay = delay;
+            return false;
+        }
+        f.computeSignature();
+        if (heldDelay + delay <= 0xffff && f.signature.matches(lastSignature, duplicateThreshold)) {
+            heldDelay += delay;
+            stats.recordDuplicate();
+            return true;
+        }
+        lastSignature.copyFrom(f.signature);
+        heldDelay = delay;
+        return false;
+    }
+
+    private void extendHeldFrame(int extraDelay) {
+        if (heldFrame != null) {
+            heldFrame.delay += extraDelay;
+        }
+    }
+
+    /**
+     * 写出暂存的帧, 并行编码时写完后归还帧缓冲
+     */
+    private void writeHeldFrame() throws IOException {
+        FrameEncoder f = heldFrame;
+        if (f == null) {
+            return;
+        }
+        heldFrame = null;
+        try {
+            f.writeTo(out);
+            stats.recordFrame(f);
+        } finally {
+            if (pendingFrames != null) {
+                recycle(f);
+            }
+        }
+    }
+
+    private void recycle(FrameEncoder f) {
+        idleFrames.offer(f);
+        pendingFrames.release();
+    }
+
+    /**
+     * 等待写线程输出全部已提交的帧
+     */
+    private boolean awaitWriter() {
+        if (writer == null) {
+            return true;
+        }
+        writer.shutdown();
+        try {
+            while (!writer.awaitTermination(1, TimeUnit.SECONDS)) {
+                // 等待剩余帧编码完成
+            }
+        } catch (InterruptedException e) {
+            writer.shutdownNow();
+            Thread.currentThread().interrupt();
+            failure = e;
+        }
+        writer = null;
+        return failure == null;
+    }
+
+    /**
+     * 写入文件头
+     */
+    private void writeHeader() {
+        writeString("GIF89a");
+    }
+
+    /**
+     * 写入逻辑屏幕标识符
+     */
+    private void writeLSD() {
+        writeShort(width);
+        // 写入图像宽度
+        writeShort(height);
+        // 写入图像高度
+
+        headerBuffer.write((0x80 |  // 全局颜色列表标志置 1
+                0x70 |  // 确定图象的颜色深度（7+1=8）
+                (frame.paletteBits - 1))); // 颜色列表的索引数（2的 paletteBits 次方）
+
+        headerBuffer.write(0);
+        // 背景颜色(在全局颜色列表中的索引)
+        headerBuffer.write(0);
+        // 像素宽高比默认 1:1
+    }
+
+    private void writeShort(int value) {
+        headerBuffer.writeShort(value);
+    }
+
+    private void writeString(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            headerBuffer.write((byte) s.charAt(i));
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.yangdai.gifencoderlib;
+
+/**
+ * 字节像素中各颜色分量的排列顺序, 透明度分量被忽略
+ *
+ * @author 30415
+ */
+public enum PixelLayout {
+    RGB(3, 0, 1, 2),
+    BGR(3, 2, 1, 0),
+    RGBA(4, 0, 1, 2),
+    BGRA(4, 2, 1, 0),
+    ARGB(4, 1, 2, 3);
+
+    final int bytesPerPixel;
+    final int red;
+    final int green;
+    final int blue;
+
+    PixelLayout(int bytesPerPixel, int red, int green, int blue) {
+        this.bytesPerPixel = bytesPerPixel;
+        this.red = red;
+        this.green = green;
+        this.blue = blue;
+    }
+}
@@ -0,0 +1,104 @@
+package com.yangdai.gifencoderlib;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * 一帧图像的像素来源, 编码器只通过此接口读取像素, 不依赖具体平台的图像类型
+ *
+ * @author 30415
+ */
+public interface PixelSource {
+
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * 按 B, G, R 顺序把全部像素紧凑地写入 bgr, 长度至少为 width * height * 3
+     */
+    void readBgr(byte[] bgr);
+
+    /**
+     * 按 B, G, R 顺序从索引 0 开始以绝对位置写入 bgr, 不改变它的 position
+     * 堆外编码时调用, 默认实现经过一个整帧大小的堆数组, 实现类应覆盖以避免堆上分配
+     */
+    default void readBgr(ByteBuffer bgr) {
+        byte[] heap = new byte[getWidth() * getHeight() * 3];
+        readBgr(heap);
+        ByteBuffer dst = bgr.duplicate();
+        dst.clear();
+        dst.put(heap);
+    }
+
+    /**
+     * 只读取 [startRow, endRow) 行, 写入 bgr 中这些行的位置 (第 y 行从 y * width * 3 开始)
+     * 不同的行范围可以在多个线程上同时读取. 默认不支持, 返回 false, 编码器改为整帧读取
+     */
+    default boolean readBgrRows(byte[] bgr, int startRow, int endRow) {
+        return false;
+    }
+
+    /**
+     * 与 readBgrRows(byte[], int, int) 相同, 以绝对位置写入 bgr
+     */
+    default boolean readBgrRows(ByteBuffer bgr, int startRow, int endRow) {
+        return false;
+    }
+
+    /**
+     * 像素本身就是紧凑排列的 BGR 数组时返回该数组, 编码器可以直接读取而不复制, 否则返回 null
+     */
+    default byte[] getBgrArray() {
+        return null;
+    }
+
+    /**
+     * 像素本身就是紧凑排列的 BGR ByteBuffer 时返回从首个像素开始的视图, 堆外编码时直接读取, 否则返回 null
+     */
+    default ByteBuffer getBgrBuffer() {
+        return null;
+    }
+
+    /**
+     * 紧凑排列的 ARGB 像素
+     */
+    static PixelSource ofArgb(int[] pixels, int width, int height) {
+        return new IntPixelSource(pixels, null, 0, width, width, height);
+    }
+
+    /**
+     * 从 offset 开始, 每行间隔 stride 个像素的 ARGB 视图
+     */
+    static PixelSource ofArgb(int[] pixels, int offset, int stride, int width, int height) {
+        return new IntPixelSource(pixels, null, offset, stride, width, height);
+    }
+
+    /**
+     * 从 buffer 当前位置开始, 每行间隔 stride 个像素的 ARGB 视图
+     */
+    static PixelSource ofArgb(IntBuffer pixels, int stride, int width, int height) {
+        return new IntPixelSource(null, pixels, pixels.position(), stride, width, height);
+    }
+
+    /**
+     * 紧凑排列的字节像素
+     */
+    static PixelSource ofBytes(byte[] data, int width, int height, PixelLayout layout) {
+        return new BytePixelSource(data, null, 0, width * layout.bytesPerPixel, width, height, layout);
+    }
+
+    /**
+     * 从 offset 开始, 每行间隔 stride 字节的视图
+     */
+    static PixelSource ofBytes(byte[] data, int offset, int stride, int width, int height, PixelLayout layout) {
+        return new BytePixelSource(data, null, offset, stride, width, height, layout);
+    }
+
+    /**
+     * 从 buffer 当前位置开始, 每行间隔 stride 字节的视图
+     */
+    static PixelSource ofBytes(ByteBuffer data, int stride, int width, int height, PixelLayout layout) {
+        return new BytePixelSource(null, data, data.position(), stride, width, height, layout);
+    }
+}
@@ -0,0 +1,27 @@
+package com.yangdai.gifencoderlib;
+
+/**
+ * 颜色量化的质量预设, 对应 NeuQuant 的采样因子: 每 sampleFactor 个像素取一个参与学习
+ *
+ * @author 30415
+ */
+public enum Quality {
+    /**
+     * 只学习 1/30 的像素, 最快
+     */
+    FAST(30),
+    /**
+     * 默认, 学习 1/10 的像素
+     */
+    BALANCED(10),
+    /**
+     * 学习全部像素, 颜色最准确, 也最慢
+     */
+    BEST(1);
+
+    final int sampleFactor;
+
+    Quality(int sampleFactor) {
+        this.sampleFactor = sampleFactor;
+    }
+}
@@ -0,0 +1,32 @@
+package com.yangdai.gifencoderlib;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 颜色量化: 从 BGR 像素生成不超过 256 色的颜色表, 再把任意颜色映射到表中的索引
+ *
+ * @author 30415
+ */
+public interface Quantizer {
+
+    /**
+     * 设置要量化的像素, length 为字节数, 每 sample 个像素取一个参与训练, 复用已分配的数组
+     */
+    void reset(byte[] input, int length, int sample);
+
+    /**
+     * 从 ByteBuffer (可以是堆外的 direct buffer) 按绝对位置读取 BGR 像素
+     */
+    void reset(ByteBuffer input, int length, int sample);
+
+    /**
+     * 生成 BGR 顺序的颜色表, 长度为 3 的倍数且不超过 768
+     * 返回的数组由调用方使用, 修改它不影响之后的 map
+     */
+    byte[] process();
+
+    /**
+     * 返回与 BGR 颜色最接近的颜色表索引
+     */
+    int map(int b, int g, int r);
+}
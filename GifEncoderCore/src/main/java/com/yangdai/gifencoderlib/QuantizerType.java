@@ -0,0 +1,29 @@
+package com.yangdai.gifencoderlib;
+
+/**
+ * 局部颜色表与全局颜色表使用的量化算法. 颜色不超过 256 种的帧总是直接使用原色, 不经过量化
+ *
+ * @author 30415
+ */
+public enum QuantizerType {
+    /**
+     * NeuQuant 神经网络, 默认, 颜色过渡最平滑
+     */
+    NEUQUANT {
+        @Override
+        Quantizer create() {
+            return new ColorQuantizer();
+        }
+    },
+    /**
+     * 基于颜色直方图的中位切分, 训练比 NeuQuant 快得多, 映射使用逆颜色表
+     */
+    MEDIAN_CUT {
+        @Override
+        Quantizer create() {
+            return new MedianCutQuantizer();
+        }
+    };
+
+    abstract Quantizer create();
+}
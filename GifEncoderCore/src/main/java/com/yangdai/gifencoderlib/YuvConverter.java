@@ -0,0 +1,178 @@
+package com.yangdai.gifencoderlib;
+
+import java.nio.ByteBuffer;
+
+/**
+ * YUV 420 转 ARGB, 同时完成裁剪, 旋转与最近邻缩放
+ * 输入是三个带行步长与像素步长的平面, 与 YUV_420_888 相同, 可以表示 I420, NV12 与 NV21 等布局, 不依赖 Android
+ * 每个输出像素在各平面中的偏移由行, 列两张表相加得到, 布局不变时只计算一次
+ *
+ * @author 30415
+ */
+class YuvConverter {
+
+    private int cropLeft;
+    private int cropTop;
+    private int cropWidth;
+    private int cropHeight;
+    private int rotation;
+    private int yRowStride;
+    private int yPixelStride;
+    private int uvRowStride;
+    private int uvPixelStride;
+    private int outWidth;
+    private int outHeight;
+    /**
+     * 亮度与色度平面中, 由输出列和输出行分别决定的偏移
+     */
+    private int[] colY;
+    private int[] colUV;
+    private int[] rowY;
+    private int[] rowUV;
+
+    /**
+     * 旋转后的画面宽度
+     */
+    static int rotatedWidth(int width, int height, int rotation) {
+        return rotation == 90 || rotation == 270 ? height : width;
+    }
+
+    static int rotatedHeight(int width, int height, int rotation) {
+        return rotation == 90 || rotation == 270 ? width : height;
+    }
+
+    /**
+     * 一个平面: 数据从 buffer 的第 0 个字节开始, 色度平面每个采样对应 2x2 个像素
+     * NV12 的 V 平面与 U 平面共用数据, 从第 1 个字节开始, 像素步长为 2
+     */
+    static final class Plane {
+
+        final ByteBuffer buffer;
+        final int rowStride;
+        final int pixelStride;
+
+        Plane(ByteBuffer buffer, int rowStride, int pixelStride) {
+            this.buffer = buffer;
+            this.rowStride = rowStride;
+            this.pixelStride = pixelStride;
+        }
+    }
+
+    /**
+     * 设置源图像的裁剪区域与顺时针旋转角度
+     */
+    void setSource(int left, int top, int width, int height, int rotation) {
+        if (left != cropLeft || top != cropTop || width != cropWidth || height != cropHeight
+                || rotation != this.rotation) {
+            cropLeft = left;
+            cropTop = top;
+            cropWidth = width;
+            cropHeight = height;
+            this.rotation = rotation;
+            colY = null;
+        }
+    }
+
+    /**
+     * 宽或高不大于 0 时使用旋转后的裁剪尺寸
+     */
+    void setOutputSize(int width, int height) {
+        if (width != outWidth || height != outHeight) {
+            outWidth = width;
+            outHeight = height;
+            colY = null;
+        }
+    }
+
+    int getOutputWidth() {
+        return outWidth > 0 ? outWidth : rotatedWidth(cropWidth, cropHeight, rotation);
+    }
+
+    int getOutputHeight() {
+        return outHeight > 0 ? outHeight : rotatedHeight(cropWidth, cropHeight, rotation);
+    }
+
+    /**
+     * 转换一帧, argb 长度至少为 getOutputWidth() * getOutputHeight(). u 与 v 的步长必须相同
+     */
+    void convert(Plane yPlane, Plane uPlane, Plane vPlane, int[] argb) {
+        if (yPlane.rowStride != yRowStride || yPlane.pixelStride != yPixelStride
+                || uPlane.rowStride != uvRowStride || uPlane.pixelStride != uvPixelStride) {
+            yRowStride = yPlane.rowStride;
+            yPixelStride = yPlane.pixelStride;
+            uvRowStride = uPlane.rowStride;
+            uvPixelStride = uPlane.pixelStride;
+            colY = null;
+        }
+        if (colY == null) {
+            buildTables();
+        }
+        ByteBuffer y = yPlane.buffer;
+        ByteBuffer u = uPlane.buffer;
+        ByteBuffer v = vPlane.buffer;
+        int w = colY.length;
+        int h = rowY.length;
+        int k = 0;
+        for (int row = 0; row < h; row++) {
+            int ry = rowY[row];
+            int ruv = rowUV[row];
+            for (int col = 0; col < w; col++) {
+                int c = (y.get(ry + colY[col]) & 0xff) - 16;
+                int uvOffset = ruv + colUV[col];
+                int d = (u.get(uvOffset) & 0xff) - 128;
+                int e = (v.get(uvOffset) & 0xff) - 128;
+                // BT.601, 有限范围
+                int luma = 298 * c + 128;
+                int r = clamp((luma + 409 * e) >> 8);
+                int g = clamp((luma - 100 * d - 208 * e) >> 8);
+                int b = clamp((luma + 516 * d) >> 8);
+                argb[k++] = 0xff000000 | r << 16 | g << 8 | b;
+            }
+        }
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : Math.min(value, 255);
+    }
+
+    /**
+     * 输出坐标先缩放到旋转后的画面, 再映射回源图像
+     * 旋转 0/180 度时源图像的 x 只取决于输出列, 90/270 度时只取决于输出行, y 同理
+     */
+    private void buildTables() {
+        int w = getOutputWidth();
+        int h = getOutputHeight();
+        int displayWidth = rotatedWidth(cropWidth, cropHeight, rotation);
+        int displayHeight = rotatedHeight(cropWidth, cropHeight, rotation);
+        colY = new int[w];
+        colUV = new int[w];
+        rowY = new int[h];
+        rowUV = new int[h];
+        boolean swap = rotation == 90 || rotation == 270;
+        for (int col = 0; col < w; col++) {
+            int dx = (int) ((long) col * displayWidth / w);
+            if (swap) {
+                // 列决定源图像的行
+                int sy = cropTop + (rotation == 90 ? cropHeight - 1 - dx : dx);
+                colY[col] = sy * yRowStride;
+                colUV[col] = (sy >> 1) * uvRowStride;
+            } else {
+                int sx = cropLeft + (rotation == 180 ? cropWidth - 1 - dx : dx);
+                colY[col] = sx * yPixelStride;
+                colUV[col] = (sx >> 1) * uvPixelStride;
+            }
+        }
+        for (int row = 0; row < h; row++) {
+            int dy = (int) ((long) row * displayHeight / h);
+            if (swap) {
+                int sx = cropLeft + (rotation == 270 ? cropWidth - 1 - dy : dy);
+                rowY[row] = sx * yPixelStride;
+                rowUV[row] = (sx >> 1) * uvPixelStride;
+            } else {
+                int sy = cropTop + (rotation == 180 ? cropHeight - 1 - dy : dy);
+                rowY[row] = sy * yRowStride;
+                rowUV[row] = (sy >> 1) * uvRowStride;
+            }
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.yangdai.gifencoderlib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 异步编码: 未完成帧数的上限, 拒绝后继续提交, 失败原因的传递与 finish 的统计
+ *
+ * @author 30415
+ */
+public class AsyncGifEncoderTest {
+
+    private static final int WIDTH = 16;
+    private static final int HEIGHT = 8;
+
+    @Test
+    public void submitFrameBlocksAtTheLimit() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        AsyncGifEncoder encoder = new AsyncGifEncoder(new PixelGifEncoder(), executor, 1);
+        CompletableFuture<Void> started = encoder.start(frame(0), new TrackingStream());
+        executor.runAll();
+        assertTrue(started.isDone());
+
+        CompletableFuture<Void> first = encoder.submitFrame(frame(1));
+        assertEquals(1, encoder.getFramesInFlight());
+        AtomicReference<CompletableFuture<Void>> second = new AtomicReference<>();
+        Thread submitter = new Thread(() -> second.set(encoder.submitFrame(frame(2))));
+        submitter.start();
+        // 第一帧还没有执行, 第二次提交等待许可
+        submitter.join(200);
+        assertTrue(submitter.isAlive());
+        assertNull(second.get());
+
+        executor.runAll();
+        first.get(1, TimeUnit.SECONDS);
+        submitter.join(5000);
+        assertFalse(submitter.isAlive());
+        executor.runAll();
+        second.get().get(1, TimeUnit.SECONDS);
+        assertEquals(0, encoder.getFramesInFlight());
+
+        CompletableFuture<EncoderStats> finished = encoder.finish();
+        executor.runAll();
+        assertEquals(3, finished.get(1, TimeUnit.SECONDS).getFrameCount());
+    }
+
+    @Test
+    public void rejectedFrameDoesNotAffectLaterFrames() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        AsyncGifEncoder encoder = new AsyncGifEncoder(new PixelGifEncoder(), executor, 1);
+        encoder.start(frame(0), new TrackingStream());
+        CompletableFuture<Void> accepted = encoder.submitFrame(frame(1));
+        CompletableFuture<Void> rejected = encoder.trySubmitFrame(frame(2));
+        assertTrue(rejected.isCompletedExceptionally());
+        assertTrue(cause(rejected) instanceof RejectedExecutionException);
+
+        executor.runAll();
+        accepted.get(1, TimeUnit.SECONDS);
+        CompletableFuture<Void> later = encoder.trySubmitFrame(frame(3));
+        executor.runAll();
+        later.get(1, TimeUnit.SECONDS);
+
+        CompletableFuture<EncoderStats> finished = encoder.finish();
+        executor.runAll();
+        assertEquals(3, finished.get(1, TimeUnit.SECONDS).getFrameCount());
+    }
+
+    @Test
+    public void failedStartFailsLaterStepsWithTheSameCause() {
+        ManualExecutor executor = new ManualExecutor();
+        AsyncGifEncoder encoder = new AsyncGifEncoder(new PixelGifEncoder(), executor, 2);
+        TrackingStream out = new TrackingStream();
+        out.failing = true;
+        CompletableFuture<Void> started = encoder.start(frame(0), out);
+        CompletableFuture<Void> frame = encoder.submitFrame(frame(1));
+        CompletableFuture<EncoderStats> finished = encoder.finish();
+        executor.runAll();
+
+        Throwable cause = cause(started);
+        assertTrue(cause instanceof IOException);
+        assertSame(cause, cause(frame));
+        assertSame(cause, cause(finished));
+        assertTrue(out.closed);
+        assertEquals(0, encoder.getFramesInFlight());
+    }
+
+    @Test
+    public void failedFrameFailsLaterStepsWithTheSameCause() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        AsyncGifEncoder encoder = new AsyncGifEncoder(new PixelGifEncoder(), executor, 2);
+        TrackingStream out = new TrackingStream();
+        encoder.start(frame(0), out).thenRun(() -> out.failing = true);
+        CompletableFuture<Void> failed = encoder.submitFrame(frame(1));
+        CompletableFuture<Void> later = encoder.submitFrame(frame(2));
+        CompletableFuture<EncoderStats> finished = encoder.finish();
+        executor.runAll();
+
+        Throwable cause = cause(failed);
+        assertTrue(cause instanceof IOException);
+        assertSame(cause, cause(later));
+        assertSame(cause, cause(finished));
+        assertTrue(out.closed);
+    }
+
+    @Test
+    public void finishCountsTheFramesWritten() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        AsyncGifEncoder encoder = new AsyncGifEncoder(new PixelGifEncoder(), executor, 3);
+        TrackingStream out = new TrackingStream();
+        encoder.start(frame(0), out);
+        for (int i = 1; i < 6; i++) {
+            encoder.submitFrame(frame(i));
+            // 每次只执行一部分, 步骤交错完成
+            executor.runOne();
+        }
+        CompletableFuture<EncoderStats> finished = encoder.finish();
+        assertFalse(finished.isDone());
+        executor.runAll();
+        assertEquals(6, finished.get(1, TimeUnit.SECONDS).getFrameCount());
+        assertTrue(out.closed);
+        assertTrue(out.bytes.size() > 0);
+    }
+
+    private static Throwable cause(CompletableFuture<?> future) {
+        try {
+            future.get(1, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+        fail("future completed normally");
+        return null;
+    }
+
+    /**
+     * 每帧内容不同, 不会被当作重复帧合并
+     */
+    private static PixelSource frame(int seed) {
+        byte[] bgr = new byte[WIDTH * HEIGHT * 3];
+        for (int i = 0; i < bgr.length; i++) {
+            bgr[i] = (byte) (i * 37 + seed * 101);
+        }
+        return PixelSource.ofBytes(bgr, WIDTH, HEIGHT, PixelLayout.BGR);
+    }
+
+    /**
+     * 任务只在测试线程调用 runOne 或 runAll 时执行
+     */
+    private static final class ManualExecutor implements Executor {
+
+        private final BlockingQueue<Runnable> tasks = new LinkedBlockingQueue<>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runOne() {
+            Runnable task = tasks.poll();
+            if (task != null) {
+                task.run();
+            }
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+
+    private static final class TrackingStream extends OutputStream {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        volatile boolean failing;
+        volatile boolean closed;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (failing) {
+                throw new IOException("disk full");
+            }
+            bytes.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (failing) {
+                throw new IOException("disk full");
+            }
+            bytes.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.yangdai.gifencoderlib;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * 全局颜色表: 样本合计不超过 256 种颜色时使用原色, 解码结果与输入完全一致
+ *
+ * @author 30415
+ */
+public class GlobalPaletteTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 64;
+
+    @Test
+    public void fewColorsDecodeExactly() throws IOException {
+        for (int colors : new int[]{2, 4, 200, 256}) {
+            List<int[]> frames = clip(colors, 3);
+            byte[] gif = encode(frames);
+            List<int[]> decoded = decode(gif);
+            assertEquals(frames.size(), decoded.size());
+            for (int i = 0; i < frames.size(); i++) {
+                assertArrayEquals(colors + " colors, frame " + i, frames.get(i), decoded.get(i));
+            }
+        }
+    }
+
+    /**
+     * 颜色表只取能容纳原色与透明色的最小的 2 的幂, 不补齐到 256 项
+     */
+    @Test
+    public void fewColorsWriteASmallTable() throws IOException {
+        byte[] gif = encode(clip(4, 2));
+        int packed = gif[10] & 0xff;
+        assertTrue("global color table flag", (packed & 0x80) != 0);
+        assertEquals(8, 2 << (packed & 7));
+    }
+
+    /**
+     * 训练只交错抽取每个样本的一部分像素, 统计原色必须使用全部像素
+     */
+    @Test
+    public void colorsOnlyInSkippedPixelsAreKept() throws IOException {
+        int[] first = new int[WIDTH * HEIGHT];
+        int[] second = new int[WIDTH * HEIGHT];
+        Arrays.fill(first, 0xff102030);
+        Arrays.fill(second, 0xff102030);
+        // 两个样本交错抽取时分别只取偶数与奇数像素
+        first[1] = 0xffff0000;
+        second[0] = 0xff00ff00;
+        List<int[]> frames = Arrays.asList(first, second);
+        List<int[]> decoded = decode(encode(frames));
+        assertArrayEquals(first, decoded.get(0));
+        assertArrayEquals(second, decoded.get(1));
+    }
+
+    private static byte[] encode(List<int[]> frames) {
+        List<PixelSource> sources = new ArrayList<>();
+        for (int[] argb : frames) {
+            sources.add(PixelSource.ofArgb(argb, WIDTH, HEIGHT));
+        }
+        PixelGifEncoder encoder = new PixelGifEncoder();
+        encoder.setGlobalPaletteSources(sources);
+        encoder.init(sources.get(0));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(encoder.start(out));
+        for (int i = 1; i < sources.size(); i++) {
+            assertTrue(encoder.addFrame(sources.get(i)));
+        }
+        assertTrue(encoder.finish());
+        return out.toByteArray();
+    }
+
+    private static List<int[]> decode(byte[] gif) throws IOException {
+        ImageReader reader = ImageIO.getImageReadersByFormatName("gif").next();
+        List<int[]> frames = new ArrayList<>();
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(gif))) {
+            reader.setInput(in);
+            int count = reader.getNumImages(true);
+            for (int i = 0; i < count; i++) {
+                BufferedImage image = reader.read(i);
+                frames.add(image.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH));
+            }
+        } finally {
+            reader.dispose();
+        }
+        return frames;
+    }
+
+    /**
+     * frameCount 帧, 所有帧合计恰好使用 colors 种颜色
+     */
+    private static List<int[]> clip(int colors, int frameCount) {
+        Random random = new Random(colors);
+        int[] palette = new int[colors];
+        for (int i = 0; i < colors; i++) {
+            palette[i] = 0xff000000 | random.nextInt(1 << 24);
+        }
+        List<int[]> frames = new ArrayList<>();
+        for (int f = 0; f < frameCount; f++) {
+            int[] argb = new int[WIDTH * HEIGHT];
+            for (int i = 0; i < argb.length; i++) {
+                argb[i] = palette[(i + f * 7) % colors];
+            }
+            frames.add(argb);
+        }
+        return frames;
+    }
+}
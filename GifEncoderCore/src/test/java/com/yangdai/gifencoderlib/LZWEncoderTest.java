@@ -0,0 +1,238 @@
+package com.yangdai.gifencoderlib;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * LZW 编码流解码后与原始索引一致
+ *
+ * @author 30415
+ */
+public class LZWEncoderTest {
+
+    private static ForkJoinPool pool;
+
+    @BeforeClass
+    public static void createPool() {
+        pool = new ForkJoinPool(2);
+    }
+
+    @AfterClass
+    public static void shutdownPool() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void segmentedDeferredAndSequentialRoundTrip() throws IOException {
+        int width = 97;
+        int height = 61;
+        byte[][] inputs = {random(width, height, 8, 1), random(width, height, 3, 2), gradient(width, height, 8)};
+        for (byte[] indices : inputs) {
+            int depth = indices == inputs[1] ? 3 : 8;
+            for (int segments : new int[]{0, 1, 3}) {
+                for (boolean deferred : new boolean[]{false, true}) {
+                    byte[] encoded = encode(indices, width, height, depth, deferred, segments);
+                    assertArrayEquals("segments " + segments + ", deferred " + deferred,
+                            indices, new LzwDecoder().decode(encoded, indices.length));
+                    LzwDecoder.assertImageIoDecodes(encoded, indices, width, height);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void everyCodeSizeRoundTrip() throws IOException {
+        int width = 83;
+        int height = 47;
+        for (int depth = 1; depth <= 8; depth++) {
+            byte[][] inputs = {flat(width, height, (1 << depth) - 1), random(width, height, depth, depth),
+                    gradient(width, height, depth)};
+            for (byte[] indices : inputs) {
+                byte[] encoded = encode(indices, width, height, depth, false, 0);
+                assertArrayEquals("depth " + depth, indices, new LzwDecoder().decode(encoded, indices.length));
+                LzwDecoder.assertImageIoDecodes(encoded, indices, width, height);
+            }
+        }
+    }
+
+    @Test
+    public void fullTableClearsAtTwelveBits() throws IOException {
+        int width = 256;
+        int height = 256;
+        byte[] indices = random(width, height, 8, 3);
+        byte[] encoded = encode(indices, width, height, 8, false, 0);
+        LzwDecoder decoder = new LzwDecoder();
+        assertArrayEquals(indices, decoder.decode(encoded, indices.length));
+        assertEquals(12, decoder.maxCodeSize);
+        assertTrue("clears " + decoder.clearCount, decoder.clearCount > 1);
+        LzwDecoder.assertImageIoDecodes(encoded, indices, width, height);
+    }
+
+    /**
+     * 逐个像素加长输入, 让最后一个编码与结束码落在每一次位数增加 (包括表满清除) 的前后
+     */
+    @Test
+    public void endsAroundEveryWidthIncrease() {
+        byte[] small = random(1200, 1, 2, 4);
+        for (int n = 1; n <= small.length; n++) {
+            byte[] indices = Arrays.copyOf(small, n);
+            assertArrayEquals("length " + n, indices,
+                    new LzwDecoder().decode(encode(indices, n, 1, 2, false, 0), n));
+        }
+        // 8 位随机索引约 4000 个像素时编码表填满
+        byte[] large = random(4600, 1, 8, 5);
+        for (int n = 3700; n <= large.length; n++) {
+            byte[] indices = Arrays.copyOf(large, n);
+            assertArrayEquals("length " + n, indices,
+                    new LzwDecoder().decode(encode(indices, n, 1, 8, false, 0), n));
+        }
+    }
+
+    @Test
+    public void deferredClearRoundTrip() throws IOException {
+        int width = 83;
+        int height = 47;
+        for (int depth = 1; depth <= 8; depth++) {
+            byte[][] inputs = {flat(width, height, (1 << depth) - 1), random(width, height, depth, depth),
+                    gradient(width, height, depth)};
+            for (byte[] indices : inputs) {
+                byte[] encoded = encode(indices, width, height, depth, true, 0);
+                assertArrayEquals("depth " + depth, indices, new LzwDecoder().decode(encoded, indices.length));
+                LzwDecoder.assertImageIoDecodes(encoded, indices, width, height);
+            }
+        }
+        byte[] large = random(4600, 1, 8, 5);
+        for (int n = 3700; n <= large.length; n += 7) {
+            byte[] indices = Arrays.copyOf(large, n);
+            assertArrayEquals("length " + n, indices,
+                    new LzwDecoder().decode(encode(indices, n, 1, 8, true, 0), n));
+        }
+    }
+
+    /**
+     * 表满后内容仍与表中的串相符时不清除, 输出比顺序压缩小
+     */
+    @Test
+    public void deferredClearKeepsAUsefulTable() {
+        int width = 256;
+        int height = 256;
+        byte[] tile = random(2000, 1, 8, 7);
+        byte[] indices = new byte[width * height];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = tile[i % tile.length];
+        }
+        LzwDecoder deferred = new LzwDecoder();
+        byte[] deferredBytes = encode(indices, width, height, 8, true, 0);
+        assertArrayEquals(indices, deferred.decode(deferredBytes, indices.length));
+        LzwDecoder sequential = new LzwDecoder();
+        byte[] sequentialBytes = encode(indices, width, height, 8, false, 0);
+        assertArrayEquals(indices, sequential.decode(sequentialBytes, indices.length));
+
+        assertEquals(1, deferred.clearCount);
+        assertTrue("clears " + sequential.clearCount, sequential.clearCount > 1);
+        assertTrue(deferredBytes.length < sequentialBytes.length);
+    }
+
+    /**
+     * 压缩率下降时写出清除码
+     */
+    @Test
+    public void deferredClearClearsWhenTheTableStopsPaying() {
+        int width = 256;
+        int height = 256;
+        byte[] indices = random(width, height, 8, 9);
+        LzwDecoder decoder = new LzwDecoder();
+        assertArrayEquals(indices, decoder.decode(encode(indices, width, height, 8, true, 0), indices.length));
+        assertTrue("clears " + decoder.clearCount, decoder.clearCount > 1);
+    }
+
+    /**
+     * 同一个编码器压缩不同大小与位数的帧, trie 中不能残留上一帧的编码
+     */
+    @Test
+    public void deferredClearReusesTheTrieAcrossFrames() {
+        LZWEncoder encoder = null;
+        int[][] frames = {{256, 256, 8}, {40, 30, 2}, {256, 128, 8}, {64, 64, 5}, {1, 1, 1}, {200, 100, 4}};
+        for (int[] frame : frames) {
+            int width = frame[0];
+            int height = frame[1];
+            int depth = frame[2];
+            byte[] indices = random(width, height, depth, width + height + depth);
+            if (encoder == null) {
+                encoder = new LZWEncoder(width, height, indices, depth);
+                encoder.setDeferredClear(true);
+            } else {
+                encoder.reset(width, height, indices, depth);
+            }
+            byte[] encoded = encode(encoder, width, height, 0);
+            assertArrayEquals(width + "x" + height + " depth " + depth, indices,
+                    new LzwDecoder().decode(encoded, indices.length));
+        }
+    }
+
+    /**
+     * segments 为额外的分段编码器个数, 0 表示顺序压缩
+     */
+    static byte[] encode(byte[] indices, int width, int height, int depth, boolean deferred, int segments) {
+        LZWEncoder encoder = new LZWEncoder(width, height, indices, depth);
+        encoder.setDeferredClear(deferred);
+        return encode(encoder, width, height, segments);
+    }
+
+    static byte[] encode(LZWEncoder encoder, int width, int height, int segments) {
+        OutputBuffer out = new OutputBuffer(1024);
+        if (segments == 0) {
+            encoder.encode(out);
+        } else {
+            LZWEncoder[] extra = new LZWEncoder[segments];
+            for (int i = 0; i < segments; i++) {
+                extra[i] = new LZWEncoder(width, height, (byte[]) null, 2);
+            }
+            encoder.encode(out, extra, pool);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            out.writeTo(bytes);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static byte[] flat(int width, int height, int index) {
+        byte[] indices = new byte[width * height];
+        Arrays.fill(indices, (byte) index);
+        return indices;
+    }
+
+    static byte[] random(int width, int height, int depth, long seed) {
+        Random random = new Random(seed);
+        byte[] indices = new byte[width * height];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = (byte) random.nextInt(1 << depth);
+        }
+        return indices;
+    }
+
+    static byte[] gradient(int width, int height, int depth) {
+        byte[] indices = new byte[width * height];
+        int colors = 1 << depth;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                indices[y * width + x] = (byte) ((x + y) * colors / (width + height));
+            }
+        }
+        return indices;
+    }
+}
@@ -0,0 +1,199 @@
+package com.yangdai.gifencoderlib;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * 测试用的严格 GIF LZW 解码器: 要求数据子块格式正确, 编码流以结束码结束,
+ * 结束码之后只允许补齐到字节的 0 位, 不能有多余的字节
+ *
+ * @author 30415
+ */
+final class LzwDecoder {
+
+    private static final int MAX_CODES = 4096;
+
+    /**
+     * 编码流中出现的清除码个数, 包括开头的一个
+     */
+    int clearCount;
+    /**
+     * 解码过程中达到的最大编码位数
+     */
+    int maxCodeSize;
+
+    private byte[] data;
+    private long bitPosition;
+
+    /**
+     * 解码 LZWEncoder.encode 写出的数据 (初始编码大小, 数据子块与块终结符), 返回索引
+     */
+    byte[] decode(byte[] encoded, int pixelCount) {
+        int initCodeSize = encoded[0] & 0xff;
+        assertTrue("initial code size " + initCodeSize, initCodeSize >= 2 && initCodeSize <= 8);
+        data = joinSubBlocks(encoded);
+        bitPosition = 0;
+        clearCount = 0;
+        maxCodeSize = 0;
+
+        int clearCode = 1 << initCodeSize;
+        int endCode = clearCode + 1;
+        int[] prefix = new int[MAX_CODES];
+        byte[] suffix = new byte[MAX_CODES];
+        int[] length = new int[MAX_CODES];
+        for (int c = 0; c < clearCode; c++) {
+            suffix[c] = (byte) c;
+            length[c] = 1;
+        }
+        byte[] out = new byte[pixelCount];
+        int outCount = 0;
+        int codeSize = initCodeSize + 1;
+        int nextCode = clearCode + 2;
+        int previous = -1;
+        boolean first = true;
+        while (true) {
+            maxCodeSize = Math.max(maxCodeSize, codeSize);
+            int code = readBits(codeSize);
+            if (first) {
+                assertEquals("stream must start with a clear code", clearCode, code);
+                first = false;
+            }
+            if (code == clearCode) {
+                clearCount++;
+                codeSize = initCodeSize + 1;
+                nextCode = clearCode + 2;
+                previous = -1;
+                continue;
+            }
+            if (code == endCode) {
+                break;
+            }
+            int firstByte;
+            if (previous < 0) {
+                assertTrue("first code after clear " + code, code < clearCode);
+                firstByte = code;
+            } else if (code < nextCode) {
+                firstByte = firstByte(code, prefix, suffix, length);
+                if (nextCode < MAX_CODES) {
+                    add(nextCode++, previous, firstByte, prefix, suffix, length);
+                }
+            } else if (code == nextCode && nextCode < MAX_CODES) {
+                firstByte = firstByte(previous, prefix, suffix, length);
+                add(nextCode++, previous, firstByte, prefix, suffix, length);
+            } else {
+                fail("code " + code + " out of range, next code " + nextCode);
+                return null;
+            }
+            int n = length[code];
+            assertTrue("more pixels than the image holds", outCount + n <= pixelCount);
+            for (int c = code, k = outCount + n - 1; k >= outCount; k--) {
+                out[k] = suffix[c];
+                c = prefix[c];
+            }
+            outCount += n;
+            if (nextCode == 1 << codeSize && codeSize < 12) {
+                codeSize++;
+            }
+            previous = code;
+        }
+        assertEquals("decoded pixel count", pixelCount, outCount);
+        long bytes = (bitPosition + 7) >> 3;
+        assertEquals("bytes after the end code", bytes, data.length);
+        int rest = (int) (bitPosition & 7);
+        if (rest > 0) {
+            assertEquals("padding bits", 0, (data[data.length - 1] & 0xff) >> rest);
+        }
+        return out;
+    }
+
+    /**
+     * 用 ImageIO 解码同一段数据, 与原始索引比较
+     */
+    static void assertImageIoDecodes(byte[] encoded, byte[] indices, int width, int height) throws IOException {
+        int initCodeSize = encoded[0] & 0xff;
+        ByteArrayOutputStream gif = new ByteArrayOutputStream();
+        gif.write("GIF89a".getBytes("US-ASCII"));
+        writeShort(gif, width);
+        writeShort(gif, height);
+        // 全局颜色表, 大小与初始编码大小一致
+        gif.write(0x80 | 0x70 | (initCodeSize - 1));
+        gif.write(0);
+        gif.write(0);
+        for (int i = 0; i < 1 << initCodeSize; i++) {
+            gif.write(i);
+            gif.write(i * 7);
+            gif.write(i * 13);
+        }
+        gif.write(0x2c);
+        writeShort(gif, 0);
+        writeShort(gif, 0);
+        writeShort(gif, width);
+        writeShort(gif, height);
+        gif.write(0);
+        gif.write(encoded);
+        gif.write(0x3b);
+
+        Raster raster = ImageIO.read(new ByteArrayInputStream(gif.toByteArray())).getRaster();
+        byte[] decoded = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                decoded[y * width + x] = (byte) raster.getSample(x, y, 0);
+            }
+        }
+        assertArrayEquals(indices, decoded);
+    }
+
+    private static byte[] joinSubBlocks(byte[] encoded) {
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        int pos = 1;
+        while (true) {
+            assertTrue("missing block terminator", pos < encoded.length);
+            int n = encoded[pos++] & 0xff;
+            if (n == 0) {
+                break;
+            }
+            assertTrue("truncated sub-block", pos + n <= encoded.length);
+            joined.write(encoded, pos, n);
+            pos += n;
+        }
+        assertEquals("bytes after the block terminator", encoded.length, pos);
+        return joined.toByteArray();
+    }
+
+    private int readBits(int n) {
+        int value = 0;
+        for (int i = 0; i < n; i++, bitPosition++) {
+            int index = (int) (bitPosition >> 3);
+            assertTrue("stream ended without an end code", index < data.length);
+            value |= ((data[index] >> (bitPosition & 7)) & 1) << i;
+        }
+        return value;
+    }
+
+    private static int firstByte(int code, int[] prefix, byte[] suffix, int[] length) {
+        for (int i = length[code]; i > 1; i--) {
+            code = prefix[code];
+        }
+        return suffix[code] & 0xff;
+    }
+
+    private static void add(int code, int previous, int firstByte, int[] prefix, byte[] suffix, int[] length) {
+        prefix[code] = previous;
+        suffix[code] = (byte) firstByte;
+        length[code] = length[previous] + 1;
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value & 0xff);
+        out.write((value >> 8) & 0xff);
+    }
+}
@@ -0,0 +1,47 @@
+package com.yangdai.gifencoderlib;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * 映射文件关闭后截断到实际写入的长度
+ *
+ * @author 30415
+ */
+public class MappedFileSinkTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void closeTruncatesToWrittenLength() throws IOException {
+        File file = folder.newFile("out.gif");
+        // 跨过第一个 1MB 的映射区域
+        byte[] data = new byte[(3 << 20) / 2 + 7];
+        new Random(1).nextBytes(data);
+        GifSink sink = GifSink.mapped(file.getPath());
+        sink.write(data[0]);
+        sink.write(ByteBuffer.wrap(data, 1, data.length - 1));
+        sink.close();
+        // 重复关闭不再截断
+        sink.close();
+        assertArrayEquals(data, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void emptySinkTruncatesToZero() throws IOException {
+        File file = folder.newFile("empty.gif");
+        GifSink sink = GifSink.mapped(file.getPath());
+        sink.close();
+        assertArrayEquals(new byte[0], Files.readAllBytes(file.toPath()));
+    }
+}
@@ -0,0 +1,87 @@
+package com.yangdai.gifencoderlib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+/**
+ * 场景切换检测与沿用颜色表
+ *
+ * @author 30415
+ */
+public class PaletteTrackerTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    @Test
+    public void noReferenceBeforeFirstTraining() {
+        PaletteTracker tracker = new PaletteTracker(0.25f);
+        tracker.updateHistogram(bgr(true, 1), null, WIDTH * HEIGHT);
+        assertFalse(tracker.matchesReference());
+    }
+
+    @Test
+    public void disjointColorsAreASceneCut() {
+        PaletteTracker tracker = new PaletteTracker(0.25f);
+        tracker.updateHistogram(bgr(true, 1), null, WIDTH * HEIGHT);
+        tracker.setReference(1);
+        tracker.updateHistogram(bgr(false, 2), null, WIDTH * HEIGHT);
+        assertFalse(tracker.matchesReference());
+    }
+
+    @Test
+    public void similarColorsMatch() {
+        PaletteTracker tracker = new PaletteTracker(0.25f);
+        tracker.updateHistogram(bgr(true, 1), null, WIDTH * HEIGHT);
+        tracker.setReference(1);
+        tracker.updateHistogram(bgr(true, 2), null, WIDTH * HEIGHT);
+        assertTrue(tracker.matchesReference());
+    }
+
+    @Test
+    public void encoderRetrainsAfterSceneCut() {
+        EncoderStats stats = encode(bgr(true, 1), bgr(false, 2));
+        assertEquals(0, stats.getPaletteReuseCount());
+        assertEquals(2, stats.getRetrainCount());
+    }
+
+    @Test
+    public void encoderReusesPaletteForSimilarFrame() {
+        EncoderStats stats = encode(bgr(true, 1), bgr(true, 2));
+        assertEquals(1, stats.getPaletteReuseCount());
+        assertEquals(1, stats.getRetrainCount());
+    }
+
+    private static EncoderStats encode(byte[] first, byte[] second) {
+        PixelGifEncoder encoder = new PixelGifEncoder();
+        encoder.setPaletteReuse(0.25f);
+        encoder.init(PixelSource.ofBytes(first, WIDTH, HEIGHT, PixelLayout.BGR));
+        assertTrue(encoder.start(new ByteArrayOutputStream()));
+        assertTrue(encoder.addFrame(PixelSource.ofBytes(second, WIDTH, HEIGHT, PixelLayout.BGR)));
+        assertTrue(encoder.finish());
+        return encoder.getStats();
+    }
+
+    /**
+     * 远多于 256 种颜色的随机帧, red 为 true 时只有偏红的颜色, 否则只有偏蓝的颜色
+     */
+    private static byte[] bgr(boolean red, long seed) {
+        Random random = new Random(seed);
+        byte[] bgr = new byte[WIDTH * HEIGHT * 3];
+        for (int k = 0; k < bgr.length; k += 3) {
+            int strong = 128 + random.nextInt(128);
+            int g = random.nextInt(64);
+            int weak = random.nextInt(64);
+            bgr[k] = (byte) (red ? weak : strong);
+            bgr[k + 1] = (byte) g;
+            bgr[k + 2] = (byte) (red ? strong : weak);
+        }
+        return bgr;
+    }
+}
@@ -0,0 +1,112 @@
+package com.yangdai.gifencoderlib;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 编码器的失败路径: 失败原因与输出的关闭
+ *
+ * @author 30415
+ */
+public class PixelGifEncoderTest {
+
+    private static final int WIDTH = 16;
+    private static final int HEIGHT = 8;
+
+    @Test
+    public void finishWithoutStartFails() {
+        PixelGifEncoder encoder = new PixelGifEncoder();
+        assertFalse(encoder.finish());
+    }
+
+    @Test
+    public void failedStartClosesTheStream() {
+        PixelGifEncoder encoder = new PixelGifEncoder();
+        encoder.init(frame());
+        TrackingStream out = new TrackingStream(true);
+        assertFalse(encoder.start(out));
+        assertTrue(out.closed);
+        assertTrue(encoder.getFailure() instanceof IOException);
+        assertFalse(encoder.finish());
+    }
+
+    @Test
+    public void rejectedFrameIsReported() {
+        PixelGifEncoder encoder = new PixelGifEncoder();
+        encoder.setExecutor(task -> {
+            throw new RejectedExecutionException("full");
+        });
+        encoder.init(frame());
+        TrackingStream out = new TrackingStream(false);
+        assertTrue(encoder.start(out));
+        assertNull(encoder.getFailure());
+        assertFalse(encoder.addFrame(frame()));
+        assertTrue(encoder.getFailure() instanceof RejectedExecutionException);
+        assertFalse(encoder.finish());
+        assertTrue(out.closed);
+    }
+
+    /**
+     * 升级说明中承诺不再有 protected 成员, 子类无法依赖内部状态
+     */
+    @Test
+    public void exposesNoProtectedMembers() {
+        for (Field field : PixelGifEncoder.class.getDeclaredFields()) {
+            assertFalse(field.getName(), Modifier.isProtected(field.getModifiers()));
+        }
+        for (Method method : PixelGifEncoder.class.getDeclaredMethods()) {
+            assertFalse(method.getName(), Modifier.isProtected(method.getModifiers()));
+        }
+    }
+
+    private static PixelSource frame() {
+        byte[] bgr = new byte[WIDTH * HEIGHT * 3];
+        for (int i = 0; i < bgr.length; i++) {
+            bgr[i] = (byte) (i * 37);
+        }
+        return PixelSource.ofBytes(bgr, WIDTH, HEIGHT, PixelLayout.BGR);
+    }
+
+    private static final class TrackingStream extends OutputStream {
+
+        private final boolean failWrites;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        boolean closed;
+
+        TrackingStream(boolean failWrites) {
+            this.failWrites = failWrites;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (failWrites) {
+                throw new IOException("disk full");
+            }
+            bytes.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (failWrites) {
+                throw new IOException("disk full");
+            }
+            bytes.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.yangdai.gifencoderlib;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * I420, NV12 与 NV21 平面布局转换结果一致, 包括奇数宽高, 裁剪与旋转
+ *
+ * @author 30415
+ */
+public class YuvConverterTest {
+
+    private static final int[][] SIZES = {{1, 1}, {7, 5}, {8, 6}, {5, 9}, {16, 15}};
+
+    @Test
+    public void i420Nv12AndNv21MatchReference() {
+        for (int[] size : SIZES) {
+            Frame frame = new Frame(size[0], size[1], size[0] * 31 + size[1]);
+            int[] expected = frame.reference(0, 0, frame.width, frame.height, 0);
+            for (Layout layout : Layout.values()) {
+                YuvConverter converter = new YuvConverter();
+                converter.setSource(0, 0, frame.width, frame.height, 0);
+                assertArrayEquals(layout + " " + frame.width + "x" + frame.height,
+                        expected, convert(converter, frame, layout));
+            }
+        }
+    }
+
+    @Test
+    public void oddCropUsesAbsoluteChromaPositions() {
+        Frame frame = new Frame(11, 9, 3);
+        for (Layout layout : Layout.values()) {
+            YuvConverter converter = new YuvConverter();
+            converter.setSource(1, 3, 7, 5, 0);
+            assertEquals(7, converter.getOutputWidth());
+            assertEquals(5, converter.getOutputHeight());
+            assertArrayEquals(layout.toString(), frame.reference(1, 3, 7, 5, 0), convert(converter, frame, layout));
+        }
+    }
+
+    @Test
+    public void rotationSwapsTheOutputSize() {
+        Frame frame = new Frame(7, 5, 4);
+        for (int rotation : new int[]{90, 180, 270}) {
+            for (Layout layout : Layout.values()) {
+                YuvConverter converter = new YuvConverter();
+                converter.setSource(0, 0, frame.width, frame.height, rotation);
+                assertEquals(YuvConverter.rotatedWidth(7, 5, rotation), converter.getOutputWidth());
+                assertArrayEquals(layout + " " + rotation, frame.reference(0, 0, 7, 5, rotation),
+                        convert(converter, frame, layout));
+            }
+        }
+    }
+
+    @Test
+    public void downscaleSamplesNearestPixels() {
+        Frame frame = new Frame(16, 15, 5);
+        YuvConverter converter = new YuvConverter();
+        converter.setSource(0, 0, frame.width, frame.height, 0);
+        converter.setOutputSize(8, 5);
+        int[] argb = convert(converter, frame, Layout.NV12);
+        for (int row = 0; row < 5; row++) {
+            for (int col = 0; col < 8; col++) {
+                assertEquals(frame.pixel(col * 16 / 8, row * 15 / 5), argb[row * 8 + col]);
+            }
+        }
+    }
+
+    /**
+     * 同一个转换器在步长变化后重新建表
+     */
+    @Test
+    public void strideChangeRebuildsTables() {
+        Frame frame = new Frame(7, 5, 6);
+        YuvConverter converter = new YuvConverter();
+        converter.setSource(0, 0, frame.width, frame.height, 0);
+        int[] expected = frame.reference(0, 0, frame.width, frame.height, 0);
+        for (Layout layout : new Layout[]{Layout.I420, Layout.NV12, Layout.I420, Layout.NV21}) {
+            assertArrayEquals(layout.toString(), expected, convert(converter, frame, layout));
+        }
+    }
+
+    private static int[] convert(YuvConverter converter, Frame frame, Layout layout) {
+        int[] argb = new int[converter.getOutputWidth() * converter.getOutputHeight()];
+        YuvConverter.Plane[] planes = layout.planes(frame);
+        converter.convert(planes[0], planes[1], planes[2], argb);
+        return argb;
+    }
+
+    private enum Layout {
+        /**
+         * 三个独立平面, 像素步长 1
+         */
+        I420,
+        /**
+         * UV 交错, U 在前
+         */
+        NV12,
+        /**
+         * VU 交错, V 在前
+         */
+        NV21;
+
+        YuvConverter.Plane[] planes(Frame f) {
+            // 行尾留出填充, 缓冲区到最后一个有效字节为止, 越界读取会抛出异常
+            int yStride = f.width + 3;
+            YuvConverter.Plane y = new YuvConverter.Plane(f.plane(f.y, f.width, f.height, yStride, 1),
+                    yStride, 1);
+            if (this == I420) {
+                int stride = f.chromaWidth + 2;
+                return new YuvConverter.Plane[]{y,
+                        new YuvConverter.Plane(f.plane(f.u, f.chromaWidth, f.chromaHeight, stride, 1), stride, 1),
+                        new YuvConverter.Plane(f.plane(f.v, f.chromaWidth, f.chromaHeight, stride, 1), stride, 1)};
+            }
+            int stride = f.chromaWidth * 2 + 4;
+            byte[] first = this == NV12 ? f.u : f.v;
+            byte[] second = this == NV12 ? f.v : f.u;
+            int capacity = (f.chromaHeight - 1) * stride + (f.chromaWidth - 1) * 2 + 2;
+            ByteBuffer interleaved = ByteBuffer.allocate(capacity);
+            for (int r = 0; r < f.chromaHeight; r++) {
+                for (int c = 0; c < f.chromaWidth; c++) {
+                    interleaved.put(r * stride + c * 2, first[r * f.chromaWidth + c]);
+                    interleaved.put(r * stride + c * 2 + 1, second[r * f.chromaWidth + c]);
+                }
+            }
+            // 与 YUV_420_888 相同, 两个平面共用数据, 各自在自己的最后一个采样处结束
+            ByteBuffer head = interleaved.duplicate();
+            head.limit(capacity - 1);
+            ByteBuffer tail = interleaved.duplicate();
+            tail.position(1);
+            YuvConverter.Plane a = new YuvConverter.Plane(head.slice(), stride, 2);
+            YuvConverter.Plane b = new YuvConverter.Plane(tail.slice(), stride, 2);
+            return this == NV12 ? new YuvConverter.Plane[]{y, a, b} : new YuvConverter.Plane[]{y, b, a};
+        }
+    }
+
+    /**
+     * 逻辑上的 YUV 420 图像, 色度按 2x2 采样, 奇数宽高向上取整
+     */
+    private static final class Frame {
+
+        final int width;
+        final int height;
+        final int chromaWidth;
+        final int chromaHeight;
+        final byte[] y;
+        final byte[] u;
+        final byte[] v;
+
+        Frame(int width, int height, long seed) {
+            this.width = width;
+            this.height = height;
+            chromaWidth = (width + 1) / 2;
+            chromaHeight = (height + 1) / 2;
+            Random random = new Random(seed);
+            y = new byte[width * height];
+            u = new byte[chromaWidth * chromaHeight];
+            v = new byte[chromaWidth * chromaHeight];
+            random.nextBytes(y);
+            random.nextBytes(u);
+            random.nextBytes(v);
+        }
+
+        /**
+         * 按步长排列一个平面, 缓冲区在最后一个采样处结束
+         */
+        ByteBuffer plane(byte[] samples, int cols, int rows, int rowStride, int pixelStride) {
+            int capacity = (rows - 1) * rowStride + (cols - 1) * pixelStride + 1;
+            ByteBuffer buffer = ByteBuffer.allocate(capacity);
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < cols; c++) {
+                    buffer.put(r * rowStride + c * pixelStride, samples[r * cols + c]);
+                }
+            }
+            return buffer;
+        }
+
+        int pixel(int x, int yy) {
+            int c = (y[yy * width + x] & 0xff) - 16;
+            int d = (u[(yy >> 1) * chromaWidth + (x >> 1)] & 0xff) - 128;
+            int e = (v[(yy >> 1) * chromaWidth + (x >> 1)] & 0xff) - 128;
+            int luma = 298 * c + 128;
+            return 0xff000000 | clamp((luma + 409 * e) >> 8) << 16
+                    | clamp((luma - 100 * d - 208 * e) >> 8) << 8 | clamp((luma + 516 * d) >> 8);
+        }
+
+        /**
+         * 裁剪后顺时针旋转, 不缩放
+         */
+        int[] reference(int left, int top, int cropWidth, int cropHeight, int rotation) {
+            boolean swap = rotation == 90 || rotation == 270;
+            int w = swap ? cropHeight : cropWidth;
+            int h = swap ? cropWidth : cropHeight;
+            int[] argb = new int[w * h];
+            for (int dy = 0; dy < h; dy++) {
+                for (int dx = 0; dx < w; dx++) {
+                    int sx;
+                    int sy;
+                    if (rotation == 90) {
+                        sx = dy;
+                        sy = cropHeight - 1 - dx;
+                    } else if (rotation == 180) {
+                        sx = cropWidth - 1 - dx;
+                        sy = cropHeight - 1 - dy;
+                    } else if (rotation == 270) {
+                        sx = cropWidth - 1 - dy;
+                        sy = dx;
+                    } else {
+                        sx = dx;
+                        sy = dy;
+                    }
+                    argb[dy * w + dx] = pixel(left + sx, top + sy);
+                }
+            }
+            return argb;
+        }
+
+        private static int clamp(int value) {
+            return value < 0 ? 0 : Math.min(value, 255);
+        }
+    }
+}
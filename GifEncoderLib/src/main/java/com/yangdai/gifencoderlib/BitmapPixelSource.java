@@ -0,0 +1,103 @@
+package com.yangdai.gifencoderlib;
+
+import android.graphics.Bitmap;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bitmap 到 PixelSource 的适配, 按行读取像素, 只需要一行大小的临时数组
+ *
+ * @author 30415
+ */
+public class BitmapPixelSource implements PixelSource {
+
+    private Bitmap bitmap;
+    private int[] row;
+
+    public BitmapPixelSource(Bitmap bitmap) {
+        this.bitmap = bitmap;
+    }
+
+    /**
+     * 复用同一个适配器读取另一个 Bitmap
+     */
+    void setBitmap(Bitmap bitmap) {
+        this.bitmap = bitmap;
+    }
+
+    @Override
+    public int getWidth() {
+        return bitmap.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return bitmap.getHeight();
+    }
+
+    @Override
+    public void readBgr(byte[] bgr) {
+        readRows(bgr, 0, bitmap.getHeight(), ensureRow(bitmap.getWidth()));
+    }
+
+    /**
+     * 并行读取时每个行范围使用各自的行数组
+     */
+    @Override
+    public boolean readBgrRows(byte[] bgr, int startRow, int endRow) {
+        readRows(bgr, startRow, endRow, new int[bitmap.getWidth()]);
+        return true;
+    }
+
+    private void readRows(byte[] bgr, int startRow, int endRow, int[] line) {
+        int w = bitmap.getWidth();
+        int k = startRow * w * 3;
+        for (int y = startRow; y < endRow; y++) {
+            bitmap.getPixels(line, 0, w, 0, y, w, 1);
+            for (int x = 0; x < w; x++) {
+                int p = line[x];
+                // 蓝
+                bgr[k++] = (byte) p;
+                // 绿
+                bgr[k++] = (byte) (p >> 8);
+                // 红
+                bgr[k++] = (byte) (p >> 16);
+            }
+        }
+    }
+
+    /**
+     * 堆外编码时直接写入 direct buffer, 堆上只有一行像素
+     */
+    @Override
+    public void readBgr(ByteBuffer bgr) {
+        readRows(bgr, 0, bitmap.getHeight(), ensureRow(bitmap.getWidth()));
+    }
+
+    @Override
+    public boolean readBgrRows(ByteBuffer bgr, int startRow, int endRow) {
+        readRows(bgr, startRow, endRow, new int[bitmap.getWidth()]);
+        return true;
+    }
+
+    private void readRows(ByteBuffer bgr, int startRow, int endRow, int[] line) {
+        int w = bitmap.getWidth();
+        int k = startRow * w * 3;
+        for (int y = startRow; y < endRow; y++) {
+            bitmap.getPixels(line, 0, w, 0, y, w, 1);
+            for (int x = 0; x < w; x++, k += 3) {
+                int p = line[x];
+                bgr.put(k, (byte) p);
+                bgr.put(k + 1, (byte) (p >> 8));
+                bgr.put(k + 2, (byte) (p >> 16));
+            }
+        }
+    }
+
+    private int[] ensureRow(int w) {
+        if (row == null || row.length < w) {
+            row = new int[w];
+        }
+        return row;
+    }
+}
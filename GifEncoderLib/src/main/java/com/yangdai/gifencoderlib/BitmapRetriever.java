@@ -5,40 +5,104 @@ import android.graphics.Bitmap;
 import android.media.MediaMetadataRetriever;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * @author 30415
  */
-public class BitmapRetriever implements AutoCloseable {
+public class BitmapRetriever implements FrameSource {
     /**
      * 1 μs
      */
     private static final int INTERVAL = 1000 * 1000;
+    /**
+     * 并行提取时原始帧默认最多占用的字节数. Bitmap 的像素不在 Java 堆上, 不能按堆的剩余空间估算
+     */
+    private static final long DEFAULT_MEMORY_BUDGET = 64L << 20;
+    /**
+     * 并行提取时每个提取线程最多同时持有的原始帧数: 正在解码, 已完成等待交付
+     */
+    private static final int FRAMES_PER_EXTRACTOR = 3;
+    private final String path;
     private final MediaMetadataRetriever retriever;
     private final List<Bitmap> bitmaps;
+    private final int sourceWidth;
+    private final int sourceHeight;
     private int videoWidth;
     private int videoHeight;
+    private int extractorCount = 1;
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
     private int start = 0;
     private int end = 0;
     private int fps = 5;
     private long duration;
 
     public BitmapRetriever(String path) {
+        this.path = path;
         retriever = new MediaMetadataRetriever();
         bitmaps = new ArrayList<>();
         retriever.setDataSource(path);
-        videoWidth = getIntMetadata(retriever, MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH);
-        videoHeight = getIntMetadata(retriever, MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT);
+        videoWidth = sourceWidth = getIntMetadata(retriever, MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH);
+        videoHeight = sourceHeight = getIntMetadata(retriever, MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT);
         duration = getLongMetadata(retriever) * 1000;
     }
 
     public List<Bitmap> generateBitmaps() {
+        retrieveFrames(frame -> {
+            try {
+                bitmaps.add(scale(frame));
+            } catch (OutOfMemoryError oom) {
+                oom.printStackTrace();
+            }
+        });
+        return bitmaps;
+    }
+
+    /**
+     * 逐帧提取并缩放, 每得到一帧立即交给 consumer, 自身不保留任何帧
+     */
+    @Override
+    public void forEachBitmap(Consumer<Bitmap> consumer) {
+        retrieveFrames(frame -> consumer.accept(scaleAndRecycle(frame)));
+    }
+
+    /**
+     * 在截取范围内均匀抽取 count 帧 (取最近的关键帧, 不逐帧解码), 用于训练全局颜色表
+     */
+    @Override
+    public List<Bitmap> sampleBitmaps(int count) {
+        updateDuration();
+        long begin = (long) start * INTERVAL;
+        List<Bitmap> samples = new ArrayList<>(count);
+        for (int k = 0; k < count; k++) {
+            long time = begin + (long) ((duration - begin) * (k + 0.5) / count);
+            Optional.ofNullable(retriever.getFrameAtTime(time, MediaMetadataRetriever.OPTION_CLOSEST_SYNC))
+                    .ifPresent(frame -> samples.add(scaleAndRecycle(frame)));
+        }
+        return samples;
+    }
+
+    private void retrieveFrames(Consumer<Bitmap> consumer) {
         double interval = (double) INTERVAL / fps;
-        if (end > 0) {
-            duration = (long) end * INTERVAL;
+        updateDuration();
+        int count = getExtractorCount();
+        if (count > 1) {
+            retrieveFramesParallel(consumer, interval, count);
+            return;
         }
 
         for (long i = (long) start * INTERVAL; i < duration; i += interval) {
@@ -47,15 +111,172 @@ public class BitmapRetriever implements AutoCloseable {
             // 也就是 假设获取50帧画面,实际只有10帧有效,其余有重复画面)
             Optional<Bitmap> optionalFrame = Optional
                     .ofNullable(retriever.getFrameAtTime(i, MediaMetadataRetriever.OPTION_CLOSEST));
-            optionalFrame.ifPresent(frame -> {
+            optionalFrame.ifPresent(consumer);
+        }
+    }
+
+    /**
+     * 多个 MediaMetadataRetriever 在各自的线程上提取不同时间点的帧, 按时间顺序交给 consumer
+     * 同时提交的时间点不超过 count * FRAMES_PER_EXTRACTOR 个, 且按已交付帧的 getByteCount 不超过内存预算,
+     * 先完成的帧等待之前的帧交付
+     */
+    private void retrieveFramesParallel(Consumer<Bitmap> consumer, double interval, int count) {
+        BlockingQueue<MediaMetadataRetriever> pool = new ArrayBlockingQueue<>(count);
+        List<MediaMetadataRetriever> extra = new ArrayList<>(count - 1);
+        ExecutorService executor = Executors.newFixedThreadPool(count);
+        ArrayDeque<FrameTask> pending = new ArrayDeque<>();
+        try {
+            pool.add(retriever);
+            for (int k = 1; k < count; k++) {
+                MediaMetadataRetriever r = new MediaMetadataRetriever();
+                extra.add(r);
+                r.setDataSource(path);
+                pool.add(r);
+            }
+            int window = count * FRAMES_PER_EXTRACTOR;
+            for (long i = (long) start * INTERVAL; i < duration; i += interval) {
+                long time = i;
+                FrameTask task = new FrameTask(() -> getFrameAtTime(pool, time));
+                pending.add(task);
+                executor.execute(task);
+                while (pending.size() >= window) {
+                    long frameBytes = deliver(pending.poll(), consumer);
+                    if (frameBytes > 0) {
+                        // 按实际的帧大小调整窗口, 至少每个提取线程一帧
+                        long limit = Math.min(count * FRAMES_PER_EXTRACTOR, memoryBudget / frameBytes);
+                        window = (int) Math.max(count, limit);
+                    }
+                }
+            }
+            while (!pending.isEmpty()) {
+                deliver(pending.poll(), consumer);
+            }
+        } finally {
+            executor.shutdownNow();
+            discard(pending);
+            awaitTermination(executor);
+            for (MediaMetadataRetriever r : extra) {
+                closeRetriever(r);
+            }
+        }
+    }
+
+    private static Bitmap getFrameAtTime(BlockingQueue<MediaMetadataRetriever> pool, long time)
+            throws InterruptedException {
+        MediaMetadataRetriever r = pool.take();
+        try {
+            return r.getFrameAtTime(time, MediaMetadataRetriever.OPTION_CLOSEST);
+        } finally {
+            pool.add(r);
+        }
+    }
+
+    /**
+     * 交付一帧, 返回其 getByteCount, 没有得到帧时返回 0
+     */
+    private static long deliver(Future<Bitmap> future, Consumer<Bitmap> consumer) {
+        Bitmap frame;
+        try {
+            frame = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+        }
+        if (frame == null) {
+            return 0;
+        }
+        long bytes = frame.getByteCount();
+        consumer.accept(frame);
+        return bytes;
+    }
+
+    /**
+     * 取消未交付的帧, 已经提取完成的直接回收. 取消时正在解码的帧由 FrameTask 在完成时回收
+     */
+    private static void discard(ArrayDeque<FrameTask> pending) {
+        Future<Bitmap> future;
+        while ((future = pending.poll()) != null) {
+            if (!future.cancel(true) && future.isDone()) {
                 try {
-                    bitmaps.add(scale(frame));
-                } catch (OutOfMemoryError oom) {
-                    oom.printStackTrace();
+                    Bitmap frame = future.get();
+                    if (frame != null) {
+                        frame.recycle();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException | CancellationException ignored) {
                 }
-            });
+            }
+        }
+    }
+
+    /**
+     * 等待正在解码的线程结束后才能关闭对应的 MediaMetadataRetriever
+     */
+    private static void awaitTermination(ExecutorService executor) {
+        boolean interrupted = false;
+        while (!executor.isTerminated()) {
+            try {
+                executor.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 实际使用的提取线程数: 不超过设置值与 CPU 核数, 且所有线程持有的原始帧 (按 ARGB_8888 估算) 不超过内存预算
+     */
+    private int getExtractorCount() {
+        int count = Math.min(extractorCount, Runtime.getRuntime().availableProcessors());
+        if (count <= 1) {
+            return 1;
+        }
+        long frameBytes = (long) Math.max(sourceWidth, 1) * Math.max(sourceHeight, 1) * 4;
+        long limit = memoryBudget / (frameBytes * FRAMES_PER_EXTRACTOR);
+        return (int) Math.max(1, Math.min(count, limit));
+    }
+
+    /**
+     * 取消后才完成的帧无法再通过 Future 取得, 在完成时直接回收
+     */
+    private static final class FrameTask extends FutureTask<Bitmap> {
+
+        FrameTask(Callable<Bitmap> callable) {
+            super(callable);
+        }
+
+        @Override
+        protected void set(Bitmap frame) {
+            super.set(frame);
+            if (frame != null && isCancelled()) {
+                frame.recycle();
+            }
+        }
+    }
+
+    @SuppressLint("NewApi")
+    private static void closeRetriever(MediaMetadataRetriever r) {
+        try {
+            r.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void updateDuration() {
+        if (end > 0) {
+            duration = (long) end * INTERVAL;
         }
-        return bitmaps;
     }
 
     private int getIntMetadata(MediaMetadataRetriever retriever, int key) {
@@ -76,10 +297,12 @@ public class BitmapRetriever implements AutoCloseable {
         this.videoHeight = height;
     }
 
+    @Override
     public int getVideoWidth() {
         return videoWidth;
     }
 
+    @Override
     public int getVideoHeight() {
         return videoHeight;
     }
@@ -103,6 +326,25 @@ public class BitmapRetriever implements AutoCloseable {
         this.fps = fps;
     }
 
+    /**
+     * 设置并行提取使用的 MediaMetadataRetriever 数量, 1 表示在调用线程上逐帧提取
+     * 实际数量还受 CPU 核数与内存预算限制
+     */
+    public void setExtractorCount(int count) {
+        if (count > 0) {
+            this.extractorCount = count;
+        }
+    }
+
+    /**
+     * 并行提取时已解码但尚未交付的原始帧最多占用的字节数, 默认 64MB
+     */
+    public void setMemoryBudget(long bytes) {
+        if (bytes > 0) {
+            this.memoryBudget = bytes;
+        }
+    }
+
     private Bitmap scale(Bitmap bitmap) {
         return Bitmap.createScaledBitmap(bitmap,
                 videoWidth > 0 ? videoWidth : bitmap.getWidth(),
@@ -110,6 +352,17 @@ public class BitmapRetriever implements AutoCloseable {
                 true);
     }
 
+    /**
+     * 缩放后回收原始帧
+     */
+    private Bitmap scaleAndRecycle(Bitmap frame) {
+        Bitmap scaled = scale(frame);
+        if (scaled != frame) {
+            frame.recycle();
+        }
+        return scaled;
+    }
+
     @SuppressLint("NewApi")
     @Override
     public void close() {
@@ -0,0 +1,39 @@
+package com.yangdai.gifencoderlib;
+
+import android.graphics.Bitmap;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 视频帧来源, GifPipeline 只依赖此接口, 测试时可以用内存中的帧代替真实视频
+ * 接口交付的是 Bitmap, 实现只能在 Android 上运行; 与平台无关的 YUV 转换在 GifEncoderCore 的 YuvConverter 中, 可以在 JVM 上测试
+ *
+ * @author 30415
+ */
+public interface FrameSource extends AutoCloseable {
+
+    /**
+     * 按时间顺序逐帧交给 consumer, 由 consumer 负责回收
+     */
+    void forEachBitmap(Consumer<Bitmap> consumer);
+
+    /**
+     * 在截取范围内均匀抽取 count 帧, 用于训练全局颜色表
+     */
+    List<Bitmap> sampleBitmaps(int count);
+
+    /**
+     * 输出 Bitmap 的宽度, 用于在解码之前预留内存, 未知时为 0
+     */
+    default int getVideoWidth() {
+        return 0;
+    }
+
+    default int getVideoHeight() {
+        return 0;
+    }
+
+    @Override
+    void close();
+}
@@ -0,0 +1,299 @@
+package com.yangdai.gifencoderlib;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 同时执行多个视频转 GIF 任务: 各任务的编码步骤在共享的线程池上按提交顺序轮流执行,
+ * 已解码的 Bitmap 与编码器缓冲区共用一个字节预算, 每帧在解码之前按预计大小预留, 超出预算时提取线程等待,
+ * 活动任务数达到上限时新任务排队. 为保证每个任务都能前进, 没有帧在编码的任务总是可以再提交一帧,
+ * 实际占用最多超出预算每个活动任务一帧
+ *
+ * @author 30415
+ */
+public class GifJobScheduler implements AutoCloseable {
+
+    private static final int DEFAULT_FRAMES_PER_JOB = 2;
+
+    private final ExecutorService workers;
+    /**
+     * 每个活动任务占用其中一个线程提取帧, 线程数由 maxActiveJobs 限制
+     */
+    private final ExecutorService extractors = Executors.newCachedThreadPool(r -> new Thread(r, "GifJob"));
+    private final long byteBudget;
+    private int maxActiveJobs;
+    private int maxQueuedJobs = Integer.MAX_VALUE;
+    private int framesPerJob = DEFAULT_FRAMES_PER_JOB;
+
+    /**
+     * 以下字段都由 this 保护
+     */
+    private final Queue<Job> queuedJobs = new ArrayDeque<>();
+    private int activeJobs;
+    private long usedBytes;
+    private boolean closed;
+
+    /**
+     * workers 个编码线程, 所有任务的 Bitmap 与编码缓冲区合计不超过 byteBudget 字节
+     */
+    public GifJobScheduler(int workers, long byteBudget) {
+        this.workers = Executors.newFixedThreadPool(Math.max(1, workers));
+        this.byteBudget = byteBudget;
+        this.maxActiveJobs = Math.max(1, workers) * 2;
+    }
+
+    /**
+     * 同时提取与编码的最大任务数, 每个活动任务占用一个提取线程
+     */
+    public synchronized void setMaxActiveJobs(int maxActiveJobs) {
+        if (maxActiveJobs > 0) {
+            this.maxActiveJobs = maxActiveJobs;
+        }
+    }
+
+    /**
+     * 最多排队等待的任务数, 超出时 submit 直接拒绝
+     */
+    public synchronized void setMaxQueuedJobs(int maxQueuedJobs) {
+        if (maxQueuedJobs >= 0) {
+            this.maxQueuedJobs = maxQueuedJobs;
+        }
+    }
+
+    /**
+     * 每个任务最多同时编码的帧数
+     */
+    public synchronized void setFramesPerJob(int framesPerJob) {
+        if (framesPerJob > 0) {
+            this.framesPerJob = framesPerJob;
+        }
+    }
+
+    /**
+     * 提交任务, 完成时得到编码统计, 失败时得到真实的异常. encoder 的参数需事先设置好, 且不能设置 executor
+     * source 由调用方在任务完成后关闭. 排队的任务已满或调度器已关闭时返回以 RejectedExecutionException 失败的 future
+     */
+    public synchronized CompletableFuture<EncoderStats> submit(FrameSource source, GifEncoder encoder, String file) {
+        Job job = new Job(source, encoder, file, framesPerJob);
+        if (closed || queuedJobs.size() >= maxQueuedJobs) {
+            job.result.completeExceptionally(new RejectedExecutionException(closed ? "scheduler closed" : "too many queued jobs"));
+            return job.result;
+        }
+        queuedJobs.add(job);
+        dispatch();
+        return job.result;
+    }
+
+    /**
+     * Bitmap 与编码缓冲区当前占用的字节数
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public synchronized int getActiveJobs() {
+        return activeJobs;
+    }
+
+    public synchronized int getQueuedJobs() {
+        return queuedJobs.size();
+    }
+
+    /**
+     * 不再接受新任务, 已提交的任务继续执行, 全部完成后线程池退出
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (activeJobs == 0 && queuedJobs.isEmpty()) {
+            workers.shutdown();
+            extractors.shutdown();
+        }
+    }
+
+    /**
+     * 预算未用完且活动任务未满时, 按提交顺序启动排队的任务
+     */
+    private void dispatch() {
+        while (activeJobs < maxActiveJobs && usedBytes < byteBudget && !queuedJobs.isEmpty()) {
+            Job job = queuedJobs.poll();
+            activeJobs++;
+            extractors.execute(job::run);
+        }
+    }
+
+    /**
+     * 在解码之前为任务的下一帧预留 bytes 字节, 预算不足且该任务已有帧在编码时等待
+     */
+    private synchronized void reserve(Job job, long bytes) throws InterruptedException {
+        while (job.framesInFlight > 0 && usedBytes + bytes > byteBudget) {
+            wait();
+        }
+        job.framesInFlight++;
+        usedBytes += bytes;
+    }
+
+    private synchronized void releaseFrame(Job job, long bytes) {
+        job.framesInFlight--;
+        usedBytes -= bytes;
+        notifyAll();
+    }
+
+    /**
+     * 解码后按 Bitmap 的实际大小修正预留的字节数
+     */
+    private synchronized void adjust(long delta) {
+        usedBytes += delta;
+        if (delta < 0) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * 编码器缓冲区在开始提取前 (尺寸未知时在首帧) 预留, 任务结束时释放
+     */
+    private synchronized void reserveBuffers(Job job, long bytes) {
+        job.bufferBytes = bytes;
+        usedBytes += bytes;
+    }
+
+    private synchronized void finishJob(Job job) {
+        usedBytes -= job.bufferBytes;
+        activeJobs--;
+        notifyAll();
+        if (!closed || !queuedJobs.isEmpty()) {
+            dispatch();
+        } else if (activeJobs == 0) {
+            workers.shutdown();
+            extractors.shutdown();
+        }
+    }
+
+    private final class Job {
+
+        final FrameSource source;
+        final GifEncoder encoder;
+        final String file;
+        final AsyncGifEncoder async;
+        final CompletableFuture<EncoderStats> result = new CompletableFuture<>();
+        /**
+         * 每帧回收 Bitmap 并归还预算的回调, 全部完成后任务才结束
+         */
+        final List<CompletableFuture<Void>> releases = new ArrayList<>();
+        int framesInFlight;
+        long bufferBytes;
+        /**
+         * 为正在解码的下一帧预留的字节数, 已计入 framesInFlight
+         */
+        long nextBytes;
+        boolean nextReserved;
+        boolean started;
+        volatile boolean failed;
+
+        Job(FrameSource source, GifEncoder encoder, String file, int framesPerJob) {
+            this.source = source;
+            this.encoder = encoder;
+            this.file = file;
+            this.async = new AsyncGifEncoder(encoder, workers, framesPerJob);
+        }
+
+        /**
+         * 在提取线程上执行: 解码前预留预算, 解码后交给共享线程池编码, 编码完成后回收 Bitmap 并归还预算
+         */
+        void run() {
+            Throwable sourceFailure = null;
+            try {
+                long width = source.getVideoWidth();
+                long height = source.getVideoHeight();
+                if (width > 0 && height > 0) {
+                    reserveBuffers(this, encoder.estimateBufferBytes((int) width, (int) height));
+                }
+                // ARGB_8888, 尺寸未知时按首帧的实际大小修正
+                reserveNext(width * height * 4);
+                source.forEachBitmap(this::submit);
+            } catch (CancellationException e) {
+                // 编码已失败或线程被中断
+            } catch (Throwable t) {
+                sourceFailure = t;
+            }
+            if (nextReserved) {
+                // 来源已结束, 归还为下一帧预留的预算
+                nextReserved = false;
+                releaseFrame(this, nextBytes);
+            }
+            if (!started) {
+                finishJob(this);
+                result.completeExceptionally(sourceFailure != null ? sourceFailure
+                        : new IllegalStateException("no frames"));
+                return;
+            }
+            Throwable extractFailure = sourceFailure;
+            CompletableFuture<EncoderStats> finished = async.finish();
+            CompletableFuture.allOf(releases.toArray(new CompletableFuture<?>[0])).whenComplete((ignored, unused) -> {
+                // 帧的失败原因已体现在 finished 中
+                finished.whenComplete((stats, error) -> {
+                    finishJob(this);
+                    if (error != null) {
+                        result.completeExceptionally(error);
+                    } else if (extractFailure != null) {
+                        result.completeExceptionally(extractFailure);
+                    } else {
+                        result.complete(stats);
+                    }
+                });
+            });
+        }
+
+        private void submit(Bitmap bitmap) {
+            long bytes = bitmap.getByteCount();
+            nextReserved = false;
+            adjust(bytes - nextBytes);
+            if (failed) {
+                bitmap.recycle();
+                releaseFrame(this, bytes);
+                throw new CancellationException();
+            }
+            PixelSource pixels = new BitmapPixelSource(bitmap);
+            CompletableFuture<Void> step;
+            if (!started) {
+                started = true;
+                if (bufferBytes == 0) {
+                    reserveBuffers(this, encoder.estimateBufferBytes(bitmap.getWidth(), bitmap.getHeight()));
+                }
+                step = async.start(pixels, file);
+            } else {
+                step = async.submitFrame(pixels);
+            }
+            releases.add(step.handle((ignored, error) -> {
+                if (error != null) {
+                    failed = true;
+                }
+                bitmap.recycle();
+                releaseFrame(this, bytes);
+                return null;
+            }));
+            // 返回后来源才解码下一帧, 预算不足时在这里等待
+            reserveNext(bytes);
+        }
+
+        private void reserveNext(long bytes) {
+            try {
+                reserve(this, bytes);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException();
+            }
+            nextBytes = bytes;
+            nextReserved = true;
+        }
+    }
+}
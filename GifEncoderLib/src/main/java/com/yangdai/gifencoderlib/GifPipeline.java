@@ -0,0 +1,162 @@
+package com.yangdai.gifencoderlib;
+
+import android.graphics.Bitmap;
+
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 视频转 GIF 流水线: 提取线程从 FrameSource 逐帧解码, 经有界队列直接交给 GifEncoder
+ * 内存峰值取决于队列长度而不是视频时长, 提取与编码同时进行
+ *
+ * @author 30415
+ */
+public class GifPipeline {
+
+    private static final int DEFAULT_QUEUE_CAPACITY = 4;
+
+    private final FrameSource source;
+    private final GifEncoder encoder;
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private int paletteSamples = 0;
+    private volatile Throwable failure;
+
+    public GifPipeline(FrameSource source, GifEncoder encoder) {
+        this.source = source;
+        this.encoder = encoder;
+    }
+
+    /**
+     * 设置提取线程与编码线程之间最多缓存的帧数
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity > 0) {
+            this.queueCapacity = queueCapacity;
+        }
+    }
+
+    /**
+     * 从整个片段中均匀抽取 count 帧训练全局颜色表, 0 表示每帧使用局部颜色表
+     */
+    public void setGlobalPaletteSamples(int count) {
+        if (count >= 0) {
+            paletteSamples = count;
+        }
+    }
+
+    /**
+     * 提取失败的原因, 成功时为 null
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    public boolean encode(String file) {
+        return encode(() -> encoder.start(file));
+    }
+
+    public boolean encode(OutputStream os) {
+        return encode(() -> encoder.start(os));
+    }
+
+    /**
+     * 在调用线程上编码, 编码完的帧立即回收
+     */
+    private boolean encode(BooleanSupplier start) {
+        if (paletteSamples > 0) {
+            List<Bitmap> samples = source.sampleBitmaps(paletteSamples);
+            encoder.setGlobalPalette(samples);
+            for (Bitmap sample : samples) {
+                sample.recycle();
+            }
+        }
+        BlockingQueue<Optional<Bitmap>> queue = new ArrayBlockingQueue<>(queueCapacity);
+        failure = null;
+        Thread producer = new Thread(() -> produce(queue), "FrameSource");
+        producer.start();
+
+        boolean success = false;
+        boolean started = false;
+        try {
+            Optional<Bitmap> first = queue.take();
+            if (first.isPresent()) {
+                try {
+                    encoder.init(first.get());
+                } finally {
+                    first.get().recycle();
+                }
+                started = true;
+                if (start.getAsBoolean()) {
+                    success = true;
+                    Optional<Bitmap> next;
+                    while (success && (next = queue.take()).isPresent()) {
+                        try {
+                            success = encoder.addFrame(next.get());
+                        } finally {
+                            next.get().recycle();
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            success = false;
+        } finally {
+            stop(producer, queue);
+            if (started) {
+                // start 失败, 编码失败或被中断时同样关闭输出
+                success = encoder.finish() && success;
+            }
+        }
+        return success && failure == null;
+    }
+
+    private void produce(BlockingQueue<Optional<Bitmap>> queue) {
+        try {
+            source.forEachBitmap(bitmap -> {
+                try {
+                    queue.put(Optional.of(bitmap));
+                } catch (InterruptedException e) {
+                    bitmap.recycle();
+                    throw new CancellationException();
+                }
+            });
+        } catch (CancellationException e) {
+            return;
+        } catch (Throwable t) {
+            failure = t;
+        }
+        try {
+            queue.put(Optional.empty());
+            // 结束标记
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    /**
+     * 停止提取线程并回收队列中剩余的帧
+     */
+    private void stop(Thread producer, BlockingQueue<Optional<Bitmap>> queue) {
+        producer.interrupt();
+        boolean interrupted = false;
+        while (producer.isAlive()) {
+            try {
+                producer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        Optional<Bitmap> rest;
+        while ((rest = queue.poll()) != null) {
+            rest.ifPresent(Bitmap::recycle);
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
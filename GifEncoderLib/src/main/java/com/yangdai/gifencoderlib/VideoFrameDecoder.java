@@ -0,0 +1,258 @@
+package com.yangdai.gifencoderlib;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.media.Image;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 用 MediaExtractor 与 MediaCodec 从头到尾顺序解码一次, 只转换落在采样时间点上的帧
+ * 与 BitmapRetriever 逐个时间点从关键帧重新解码相比, 每帧只解码一次, 也不需要先生成原尺寸的 Bitmap 再缩放
+ *
+ * @author 30415
+ */
+public class VideoFrameDecoder implements FrameSource {
+    /**
+     * 1 μs
+     */
+    private static final int INTERVAL = 1000 * 1000;
+    private static final long TIMEOUT_US = 10 * 1000;
+    private final MediaExtractor extractor;
+    private final MediaFormat format;
+    private final String mime;
+    private final int rotation;
+    private final YuvConverter converter = new YuvConverter();
+    private int videoWidth;
+    private int videoHeight;
+    private int start = 0;
+    private int end = 0;
+    private int fps = 5;
+    private long duration;
+    private int[] argbPixels;
+    private int bitmapWidth;
+    private int bitmapHeight;
+
+    /**
+     * 解码器对每个输出帧的处理, 返回 false 时停止解码
+     */
+    private interface FrameHandler {
+        boolean onFrame(MediaCodec codec, int index, long presentationTimeUs);
+    }
+
+    public VideoFrameDecoder(String path) throws IOException {
+        extractor = new MediaExtractor();
+        extractor.setDataSource(path);
+        MediaFormat videoFormat = null;
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            MediaFormat trackFormat = extractor.getTrackFormat(i);
+            String trackMime = trackFormat.getString(MediaFormat.KEY_MIME);
+            if (trackMime != null && trackMime.startsWith("video/")) {
+                extractor.selectTrack(i);
+                videoFormat = trackFormat;
+                break;
+            }
+        }
+        if (videoFormat == null) {
+            extractor.release();
+            throw new IOException("no video track: " + path);
+        }
+        format = videoFormat;
+        mime = format.getString(MediaFormat.KEY_MIME);
+        rotation = format.containsKey(MediaFormat.KEY_ROTATION) ? format.getInteger(MediaFormat.KEY_ROTATION) : 0;
+        int width = format.getInteger(MediaFormat.KEY_WIDTH);
+        int height = format.getInteger(MediaFormat.KEY_HEIGHT);
+        videoWidth = YuvConverter.rotatedWidth(width, height, rotation);
+        videoHeight = YuvConverter.rotatedHeight(width, height, rotation);
+        duration = format.containsKey(MediaFormat.KEY_DURATION) ? format.getLong(MediaFormat.KEY_DURATION) : 0;
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible);
+    }
+
+    /**
+     * 顺序解码截取范围内的所有帧, 每个采样时间点取第一个不早于它的帧
+     * 源视频帧率低于 fps 时同一帧会交付多次
+     */
+    @Override
+    public void forEachBitmap(Consumer<Bitmap> consumer) {
+        double interval = (double) INTERVAL / fps;
+        long begin = (long) start * INTERVAL;
+        long last = getEndTime();
+        double[] next = {begin};
+        decode(begin, (codec, index, time) -> {
+            if (time >= last) {
+                return false;
+            }
+            if (time < next[0]) {
+                // 不在采样点上的帧只解码, 不转换
+                return true;
+            }
+            if (!convert(codec, index)) {
+                return true;
+            }
+            while (next[0] <= time && next[0] < last) {
+                consumer.accept(createBitmap());
+                next[0] += interval;
+            }
+            return next[0] < last;
+        });
+    }
+
+    /**
+     * 均匀取 count 个时间点, 各自解码之前最近的关键帧
+     */
+    @Override
+    public List<Bitmap> sampleBitmaps(int count) {
+        long begin = (long) start * INTERVAL;
+        long last = getEndTime();
+        List<Bitmap> samples = new ArrayList<>(count);
+        for (int k = 0; k < count; k++) {
+            long time = begin + (long) ((last - begin) * (k + 0.5) / count);
+            decode(time, (codec, index, presentationTime) -> {
+                if (convert(codec, index)) {
+                    samples.add(createBitmap());
+                    return false;
+                }
+                return true;
+            });
+        }
+        return samples;
+    }
+
+    /**
+     * 从 seekTime 之前的关键帧开始解码, 直到 handler 返回 false 或流结束
+     */
+    private void decode(long seekTime, FrameHandler handler) {
+        MediaCodec codec = null;
+        try {
+            codec = MediaCodec.createDecoderByType(mime);
+            codec.configure(format, null, null, 0);
+            codec.start();
+            extractor.seekTo(seekTime, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            boolean inputDone = false;
+            while (true) {
+                if (!inputDone) {
+                    int inputIndex = codec.dequeueInputBuffer(TIMEOUT_US);
+                    if (inputIndex >= 0) {
+                        ByteBuffer buffer = codec.getInputBuffer(inputIndex);
+                        int size = buffer != null ? extractor.readSampleData(buffer, 0) : -1;
+                        if (size < 0) {
+                            codec.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            codec.queueInputBuffer(inputIndex, 0, size, extractor.getSampleTime(), 0);
+                            extractor.advance();
+                        }
+                    }
+                }
+                int outputIndex = codec.dequeueOutputBuffer(info, TIMEOUT_US);
+                if (outputIndex < 0) {
+                    // 暂无输出或输出格式变化
+                    continue;
+                }
+                boolean endOfStream = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+                boolean more = info.size <= 0 || handler.onFrame(codec, outputIndex, info.presentationTimeUs);
+                codec.releaseOutputBuffer(outputIndex, false);
+                if (endOfStream || !more) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            if (codec != null) {
+                codec.stop();
+                codec.release();
+            }
+        }
+    }
+
+    /**
+     * 将解码器输出的 YUV 图像转换为输出尺寸的 ARGB 像素
+     */
+    private boolean convert(MediaCodec codec, int index) {
+        Image image = codec.getOutputImage(index);
+        if (image == null) {
+            return false;
+        }
+        try {
+            Rect crop = image.getCropRect();
+            Image.Plane[] planes = image.getPlanes();
+            converter.setSource(crop.left, crop.top, crop.width(), crop.height(), rotation);
+            converter.setOutputSize(videoWidth, videoHeight);
+            int w = converter.getOutputWidth();
+            int h = converter.getOutputHeight();
+            if (argbPixels == null || argbPixels.length != w * h) {
+                argbPixels = new int[w * h];
+            }
+            bitmapWidth = w;
+            bitmapHeight = h;
+            converter.convert(plane(planes[0]), plane(planes[1]), plane(planes[2]), argbPixels);
+        } finally {
+            image.close();
+        }
+        return true;
+    }
+
+    private static YuvConverter.Plane plane(Image.Plane plane) {
+        return new YuvConverter.Plane(plane.getBuffer(), plane.getRowStride(), plane.getPixelStride());
+    }
+
+    private Bitmap createBitmap() {
+        return Bitmap.createBitmap(argbPixels, bitmapWidth, bitmapHeight, Bitmap.Config.ARGB_8888);
+    }
+
+    private long getEndTime() {
+        return end > 0 ? (long) end * INTERVAL : duration;
+    }
+
+    /**
+     * 设置分辨率大小
+     */
+    public void setOutputBitmapSize(int width, int height) {
+        this.videoWidth = width;
+        this.videoHeight = height;
+    }
+
+    @Override
+    public int getVideoWidth() {
+        return videoWidth;
+    }
+
+    @Override
+    public int getVideoHeight() {
+        return videoHeight;
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * 截取视频的起始时间(单位 s)
+     */
+    public void setDuration(int begin, int end) {
+        this.start = begin;
+        this.end = end;
+    }
+
+    /**
+     * 设置帧率
+     */
+    public void setFps(int fps) {
+        this.fps = fps;
+    }
+
+    @Override
+    public void close() {
+        extractor.release();
+    }
+}
@@ -0,0 +1,124 @@
+package com.yangdai.gifencoderlib;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * 基准测试用的图像: 噪声, 渐变, 界面截图风格的色块, 或从文件读取的真实图片
+ *
+ * @author 30415
+ */
+final class BenchmarkImages {
+
+    private BenchmarkImages() {
+    }
+
+    /**
+     * 16:9 画面的宽度
+     */
+    static int widthOf(int height) {
+        return (height * 16 / 9) & ~1;
+    }
+
+    /**
+     * 生成第 frame 帧的 ARGB 像素, 不同帧内容整体平移, 模拟画面运动
+     * imageFile 不为空时读取该文件并缩放到指定尺寸, 忽略 content
+     */
+    static int[] argb(String content, String imageFile, int width, int height, int frame) throws IOException {
+        int[] argb = new int[width * height];
+        if (imageFile != null && !imageFile.isEmpty()) {
+            loadImage(imageFile, width, height, frame, argb);
+            return argb;
+        }
+        switch (content) {
+            case "noise":
+                Random random = new Random(frame);
+                for (int i = 0; i < argb.length; i++) {
+                    argb[i] = 0xff000000 | random.nextInt(0x1000000);
+                }
+                break;
+            case "gradient":
+                for (int y = 0, i = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++, i++) {
+                        int r = (x + frame * 4) * 255 / width & 0xff;
+                        int g = y * 255 / height;
+                        int b = (x + y + frame * 4) * 255 / (width + height) & 0xff;
+                        argb[i] = 0xff000000 | r << 16 | g << 8 | b;
+                    }
+                }
+                break;
+            case "ui":
+                drawUi(argb, width, height, frame);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown content: " + content);
+        }
+        return argb;
+    }
+
+    static PixelSource source(String content, String imageFile, int width, int height, int frame) throws IOException {
+        return PixelSource.ofArgb(argb(content, imageFile, width, height, frame), width, height);
+    }
+
+    /**
+     * 转换为编码器内部使用的 BGR 字节数组
+     */
+    static byte[] bgr(int[] argb) {
+        byte[] bgr = new byte[argb.length * 3];
+        for (int i = 0, k = 0; i < argb.length; i++) {
+            int p = argb[i];
+            bgr[k++] = (byte) p;
+            bgr[k++] = (byte) (p >> 8);
+            bgr[k++] = (byte) (p >> 16);
+        }
+        return bgr;
+    }
+
+    /**
+     * 标题栏, 侧边栏, 若干卡片和文字行, 颜色少且大面积相同
+     */
+    private static void drawUi(int[] argb, int width, int height, int frame) {
+        fillRect(argb, width, 0, 0, width, height, 0xfff5f5f5);
+        fillRect(argb, width, 0, 0, width, height / 12, 0xff3f51b5);
+        fillRect(argb, width, 0, height / 12, width / 5, height, 0xffe0e0e0);
+        int cardHeight = height / 6;
+        int offset = frame * 8 % cardHeight;
+        for (int top = height / 12 + 16 - offset, n = 0; top < height; top += cardHeight + 12, n++) {
+            int left = width / 5 + 16;
+            fillRect(argb, width, left, top, width - 16, top + cardHeight, 0xffffffff);
+            fillRect(argb, width, left + 12, top + 12, left + 12 + cardHeight - 24, top + cardHeight - 12,
+                    n % 2 == 0 ? 0xffff4081 : 0xff4caf50);
+            for (int line = top + 16; line < top + cardHeight - 12; line += 14) {
+                fillRect(argb, width, left + cardHeight, line, width - 48 - (line * 37 % 120), line + 6, 0xff424242);
+            }
+        }
+    }
+
+    private static void fillRect(int[] argb, int width, int left, int top, int right, int bottom, int color) {
+        int height = argb.length / width;
+        left = Math.max(left, 0);
+        top = Math.max(top, 0);
+        right = Math.min(right, width);
+        bottom = Math.min(bottom, height);
+        for (int y = top; y < bottom; y++) {
+            for (int x = left; x < right; x++) {
+                argb[y * width + x] = color;
+            }
+        }
+    }
+
+    private static void loadImage(String file, int width, int height, int frame, int[] argb) throws IOException {
+        BufferedImage source = ImageIO.read(new File(file));
+        if (source == null) {
+            throw new IOException("unsupported image: " + file);
+        }
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        int shift = frame * 4;
+        scaled.createGraphics().drawImage(source, -shift, 0, width + shift, height, null);
+        scaled.getRGB(0, 0, width, height, argb, 0, width);
+    }
+}
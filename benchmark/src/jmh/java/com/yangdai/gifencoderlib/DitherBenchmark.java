@@ -0,0 +1,62 @@
+package com.yangdai.gifencoderlib;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每帧的像素映射: 使用预先训练好的颜色表, 只比较各抖动方式与直接映射的开销
+ *
+ * @author 30415
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DitherBenchmark {
+
+    @Param({"240", "480", "720"})
+    public int resolution;
+
+    @Param({"noise", "gradient", "ui"})
+    public String content;
+
+    @Param({""})
+    public String imageFile;
+
+    @Param({"NONE", "BAYER", "FLOYD_STEINBERG", "SIERRA_LITE"})
+    public Dither dither;
+
+    @Param({"12"})
+    public int colorCacheBits;
+
+    private FrameEncoder frame;
+
+    @Setup
+    public void setup() throws IOException {
+        int width = BenchmarkImages.widthOf(resolution);
+        PixelSource source = BenchmarkImages.source(content, imageFile, width, resolution, 0);
+        frame = new FrameEncoder();
+        frame.setColorCacheBits(colorCacheBits);
+        frame.setGlobalPalette(GlobalPalette.train(Collections.singletonList(source), 10, QuantizerType.NEUQUANT));
+        frame.setDither(dither);
+        frame.getImagePixels(source, false);
+    }
+
+    /**
+     * 使用全局颜色表时 analyzePixels 只做映射
+     */
+    @Benchmark
+    public byte[] map() {
+        frame.analyzePixels();
+        return frame.indexedPixels;
+    }
+}
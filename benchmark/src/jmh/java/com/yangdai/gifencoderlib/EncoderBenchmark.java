@@ -0,0 +1,121 @@
+package com.yangdai.gifencoderlib;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 端到端编码: 每次调用向 PixelGifEncoder 添加一帧, 输出只计数不保存
+ *
+ * @author 30415
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EncoderBenchmark {
+
+    /**
+     * 循环使用的帧数, 相邻帧内容平移
+     */
+    private static final int FRAMES = 8;
+
+    @Param({"240", "480", "720"})
+    public int resolution;
+
+    @Param({"noise", "gradient", "ui"})
+    public String content;
+
+    @Param({""})
+    public String imageFile;
+
+    @Param({"false"})
+    public boolean deltaEncoding;
+
+    private final PixelSource[] sources = new PixelSource[FRAMES];
+    private final CountingStream stream = new CountingStream();
+    private PixelGifEncoder encoder;
+    private int next;
+
+    /**
+     * 每帧输出的字节数
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Output {
+        private long bytes;
+        private long count;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            bytes = 0;
+            count = 0;
+        }
+
+        void add(long size) {
+            bytes += size;
+            count++;
+        }
+
+        public long outputBytes() {
+            return count > 0 ? bytes / count : 0;
+        }
+    }
+
+    private static class CountingStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        int width = BenchmarkImages.widthOf(resolution);
+        for (int i = 0; i < FRAMES; i++) {
+            sources[i] = BenchmarkImages.source(content, imageFile, width, resolution, i);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void start() {
+        encoder = new PixelGifEncoder();
+        encoder.setDeltaEncoding(deltaEncoding);
+        encoder.setFrameRate(10);
+        encoder.init(sources[0]);
+        encoder.start(stream);
+        next = 1;
+    }
+
+    @TearDown(Level.Iteration)
+    public void finish() {
+        encoder.finish();
+    }
+
+    @Benchmark
+    public boolean addFrame(Output output) {
+        long before = stream.count;
+        boolean success = encoder.addFrame(sources[next]);
+        next = (next + 1) % FRAMES;
+        output.add(stream.count - before);
+        return success;
+    }
+}
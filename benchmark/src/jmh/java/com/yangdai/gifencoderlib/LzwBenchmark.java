@@ -0,0 +1,126 @@
+package com.yangdai.gifencoderlib;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对量化后的索引做 LZW 压缩
+ *
+ * @author 30415
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class LzwBenchmark {
+
+    @Param({"240", "480", "720"})
+    public int resolution;
+
+    @Param({"noise", "gradient", "ui"})
+    public String content;
+
+    @Param({""})
+    public String imageFile;
+
+    /**
+     * 表满后延迟清除, 使用 trie 查找
+     */
+    @Param({"false", "true"})
+    public boolean deferredClear;
+
+    /**
+     * encodeSegmented 的分段数
+     */
+    @Param({"4"})
+    public int segments;
+
+    private int width;
+    private byte[] indexedPixels;
+    private LZWEncoder encoder;
+    private LZWEncoder[] segmentEncoders;
+    private ForkJoinPool pool;
+    private final OutputBuffer out = new OutputBuffer(1 << 16);
+
+    /**
+     * 每次调用输出的字节数
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Output {
+        private long bytes;
+        private long count;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            bytes = 0;
+            count = 0;
+        }
+
+        void add(long size) {
+            bytes += size;
+            count++;
+        }
+
+        public long outputBytes() {
+            return count > 0 ? bytes / count : 0;
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        width = BenchmarkImages.widthOf(resolution);
+        byte[] pixels = BenchmarkImages.bgr(BenchmarkImages.argb(content, imageFile, width, resolution, 0));
+        ColorQuantizer nq = new ColorQuantizer(pixels, pixels.length, 10);
+        nq.process();
+        indexedPixels = new byte[width * resolution];
+        for (int i = 0, k = 0; i < indexedPixels.length; i++, k += 3) {
+            indexedPixels[i] = (byte) nq.map(pixels[k] & 0xff, pixels[k + 1] & 0xff, pixels[k + 2] & 0xff);
+        }
+        encoder = new LZWEncoder(width, resolution, indexedPixels, 8);
+        encoder.setDeferredClear(deferredClear);
+        segmentEncoders = new LZWEncoder[segments - 1];
+        for (int i = 0; i < segmentEncoders.length; i++) {
+            segmentEncoders[i] = new LZWEncoder(width, resolution, indexedPixels, 8);
+        }
+        pool = new ForkJoinPool(segments);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public int encode(Output output) {
+        out.reset();
+        encoder.reset(width, resolution, indexedPixels, 8);
+        encoder.encode(out);
+        output.add(out.size());
+        return out.size();
+    }
+
+    /**
+     * 按行分段, 各段在 pool 上同时压缩后按位拼接
+     */
+    @Benchmark
+    public int encodeSegmented(Output output) {
+        out.reset();
+        encoder.reset(width, resolution, indexedPixels, 8);
+        encoder.encode(out, segmentEncoders, pool);
+        output.add(out.size());
+        return out.size();
+    }
+}
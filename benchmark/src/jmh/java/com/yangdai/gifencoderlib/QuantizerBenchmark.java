@@ -0,0 +1,97 @@
+package com.yangdai.gifencoderlib;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 颜色量化训练与像素映射
+ *
+ * @author 30415
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class QuantizerBenchmark {
+
+    @Param({"240", "480", "720"})
+    public int resolution;
+
+    @Param({"noise", "gradient", "ui"})
+    public String content;
+
+    /**
+     * 不为空时使用该图片代替生成的内容
+     */
+    @Param({""})
+    public String imageFile;
+
+    @Param({"NEUQUANT", "MEDIAN_CUT"})
+    public QuantizerType quantizerType;
+
+    @Param({"10"})
+    public int sampleFactor;
+
+    @Param({"12"})
+    public int colorCacheBits;
+
+    private byte[] pixels;
+    private Quantizer trained;
+    private Quantizer quantizer;
+    private ColorIndexCache cache;
+
+    @Setup
+    public void setup() throws IOException {
+        int width = BenchmarkImages.widthOf(resolution);
+        pixels = BenchmarkImages.bgr(BenchmarkImages.argb(content, imageFile, width, resolution, 0));
+        trained = quantizerType.create();
+        trained.reset(pixels, pixels.length, sampleFactor);
+        trained.process();
+        quantizer = quantizerType.create();
+        cache = new ColorIndexCache(colorCacheBits);
+    }
+
+    /**
+     * 训练并生成颜色表
+     */
+    @Benchmark
+    public byte[] train() {
+        quantizer.reset(pixels, pixels.length, sampleFactor);
+        return quantizer.process();
+    }
+
+    /**
+     * 不使用缓存, 每个像素都搜索颜色表
+     */
+    @Benchmark
+    public void map(Blackhole bh) {
+        byte[] p = pixels;
+        Quantizer nq = trained;
+        for (int k = 0; k < p.length; k += 3) {
+            bh.consume(nq.map(p[k] & 0xff, p[k + 1] & 0xff, p[k + 2] & 0xff));
+        }
+    }
+
+    /**
+     * 经颜色缓存映射, 与编码器每帧的处理一致
+     */
+    @Benchmark
+    public void mapCached(Blackhole bh) {
+        byte[] p = pixels;
+        Quantizer nq = trained;
+        ColorIndexCache c = cache;
+        c.clear();
+        for (int k = 0; k < p.length; k += 3) {
+            bh.consume(c.map(nq, p[k] & 0xff, p[k + 1] & 0xff, p[k + 2] & 0xff));
+        }
+    }
+}